@@ -10,9 +10,11 @@ import com.mct.iap.R;
 import com.mct.iap.banner.IapBanner;
 import com.mct.iap.banner.component.BaseComponentAdapter;
 import com.mct.iap.billing.BillingConnector;
+import com.mct.iap.billing.BillingConnectorRegistry;
 import com.mct.iap.billing.BillingEventListener;
 import com.mct.iap.billing.enums.PurchasedResult;
 import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ConnectionState;
 import com.mct.iap.billing.models.ProductInfo;
 import com.mct.iap.billing.models.PurchaseInfo;
 
@@ -38,6 +40,9 @@ import java.util.stream.Collectors;
  * fetch listings for. You can also configure auto-acknowledgment and auto-consumption
  * of purchases, enable logging, and add listeners for purchase events.
  * <p>
+ * The underlying {@link BillingConnector} is shared through {@link BillingConnectorRegistry}, so
+ * opening several banners reuses one connection and the products it already fetched.
+ * <p>
  * Example Usage:
  * <code>
  * <pre>
@@ -61,9 +66,24 @@ public class BillingComponent extends BaseComponentAdapter {
     public static final boolean LOG_ENABLE = BuildConfig.DEBUG;
 
     private final Activity activity;
-    private final BillingConnector connector;
+    private final String base64Key;
     private final List<BillingEventListeners> listeners;
 
+    private BillingConnectorRegistry.Lease lease;
+    private BillingConnector connector;
+
+    private boolean shouldAutoAcknowledge;
+    private boolean shouldAutoConsume;
+    private boolean shouldEnableLogging;
+    private boolean shouldDeliverProgressively;
+    private boolean shouldReconnectOnNetworkAvailable;
+    private long productCacheTtlMillis;
+    private long parkDelayMillis = -1;
+    private int productQueryChunkSize;
+    private int maxProductQueryChunksInFlight;
+    private long catalogMaxAgeMillis;
+    private long operationDeadlineMillis;
+
     private final Set<ProductConfiguration> consumableStrategies = new HashSet<>();
     private final Set<ProductConfiguration> nonConsumableStrategies = new HashSet<>();
     private final Set<ProductConfiguration> subscriptionStrategies = new HashSet<>();
@@ -85,7 +105,7 @@ public class BillingComponent extends BaseComponentAdapter {
      */
     public BillingComponent(Activity activity, String base64Key) {
         this.activity = activity;
-        this.connector = new BillingConnector(activity, base64Key);
+        this.base64Key = base64Key;
         this.listeners = new ArrayList<>();
         if (LOG_ENABLE) {
             enableLogging();
@@ -98,11 +118,16 @@ public class BillingComponent extends BaseComponentAdapter {
     @Override
     public void init(@NonNull IapBanner banner, View root) {
         super.init(banner, root);
-        connector.setConsumableIds(consumableStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()));
-        connector.setNonConsumableIds(nonConsumableStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()));
-        connector.setSubscriptionIds(subscriptionStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()));
-        connector.setBillingEventListener(new BillingEvent(banner, listeners));
-        connector.connect();
+        if (lease != null) {
+            lease.release();
+        }
+        lease = BillingConnectorRegistry.acquire(activity, base64Key,
+                consumableStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()),
+                nonConsumableStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()),
+                subscriptionStrategies.stream().map(ProductConfiguration::getProductId).collect(Collectors.toList()),
+                new BillingEvent(banner, listeners),
+                this::configure);
+        connector = lease.getConnector();
     }
 
     /**
@@ -111,7 +136,11 @@ public class BillingComponent extends BaseComponentAdapter {
     @Override
     public void release(@NonNull IapBanner banner, View root) {
         super.release(banner, root);
-        connector.release();
+        if (lease != null) {
+            lease.release();
+            lease = null;
+        }
+        connector = null;
         listeners.clear();
     }
 
@@ -154,7 +183,7 @@ public class BillingComponent extends BaseComponentAdapter {
      * @return The {@link BillingComponent} instance for method chaining.
      */
     public BillingComponent autoAcknowledge() {
-        connector.autoAcknowledge();
+        shouldAutoAcknowledge = true;
         return this;
     }
 
@@ -164,7 +193,80 @@ public class BillingComponent extends BaseComponentAdapter {
      * @return The {@link BillingComponent} instance for method chaining.
      */
     public BillingComponent autoConsume() {
-        connector.autoConsume();
+        shouldAutoConsume = true;
+        return this;
+    }
+
+    /**
+     * Delivers the products of each product type as soon as its query returns, so lazy texts and
+     * claim buttons can bind to their product without waiting for the slowest query.
+     *
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent deliverProductsProgressively() {
+        shouldDeliverProgressively = true;
+        return this;
+    }
+
+    /**
+     * Reconnects as soon as the device is back online, so prices show up without waiting for
+     * the scheduled reconnect attempt.
+     *
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent reconnectOnNetworkAvailable() {
+        shouldReconnectOnNetworkAvailable = true;
+        return this;
+    }
+
+    /**
+     * Closes the billing connection once the app has been in background for the given delay and
+     * restores it when the app comes back, without querying products younger than catalogMaxAgeMillis.
+     *
+     * @param delayMillis         - How long the app stays in background before the connection is closed.
+     * @param catalogMaxAgeMillis - How long fetched products are considered fresh.
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent parkInBackground(long delayMillis, long catalogMaxAgeMillis) {
+        this.parkDelayMillis = Math.max(0, delayMillis);
+        this.catalogMaxAgeMillis = catalogMaxAgeMillis;
+        return this;
+    }
+
+    /**
+     * Lets a claim made before the products are loaded wait for them, instead of reporting CLIENT_NOT_READY at once.
+     * The claim is replayed once the products are loaded, or reported as CLIENT_NOT_READY after the deadline.
+     *
+     * @param deadlineMillis - How long a claim may wait, 0 to report CLIENT_NOT_READY at once.
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent deferOperationsUntilReady(long deadlineMillis) {
+        this.operationDeadlineMillis = Math.max(0, deadlineMillis);
+        return this;
+    }
+
+    /**
+     * Queries large catalogs in chunks, each chunk is shown as soon as it returns and retried on its own.
+     *
+     * @param chunkSize         - The maximum number of products per query.
+     * @param maxChunksInFlight - The maximum number of queries running at the same time.
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent chunkProductQueries(int chunkSize, int maxChunksInFlight) {
+        this.productQueryChunkSize = chunkSize;
+        this.maxProductQueryChunksInFlight = maxChunksInFlight;
+        return this;
+    }
+
+    /**
+     * Keeps fetched product details on disk so the banner can show prices instantly next time,
+     * while fresh details are fetched in background.
+     *
+     * @param ttlMillis - The maximum age of a cached product.
+     * @return The {@link BillingComponent} instance for method chaining.
+     */
+    public BillingComponent cacheProducts(long ttlMillis) {
+        productCacheTtlMillis = ttlMillis;
         return this;
     }
 
@@ -174,7 +276,7 @@ public class BillingComponent extends BaseComponentAdapter {
      * @return The {@link BillingComponent} instance for method chaining.
      */
     public BillingComponent enableLogging() {
-        connector.enableLogging();
+        shouldEnableLogging = true;
         return this;
     }
 
@@ -214,6 +316,9 @@ public class BillingComponent extends BaseComponentAdapter {
      * @param product - The product to subscribe.
      */
     public final void subscribe(@NonNull ProductConfiguration product) {
+        if (connector == null) {
+            return;
+        }
         connector.subscribe(activity, product.getProductId(), product.getSelectedOfferIndex());
     }
 
@@ -223,6 +328,9 @@ public class BillingComponent extends BaseComponentAdapter {
      * @param purchaseInfo - The PurchaseInfo object representing the purchased product to be consumed.
      */
     public final void consumePurchase(PurchaseInfo purchaseInfo) {
+        if (connector == null) {
+            return;
+        }
         connector.consumePurchase(purchaseInfo);
     }
 
@@ -232,6 +340,9 @@ public class BillingComponent extends BaseComponentAdapter {
      * @param purchaseInfo - The PurchaseInfo object representing the purchased product to be acknowledged.
      */
     public final void acknowledgePurchase(PurchaseInfo purchaseInfo) {
+        if (connector == null) {
+            return;
+        }
         connector.acknowledgePurchase(purchaseInfo);
     }
 
@@ -243,6 +354,9 @@ public class BillingComponent extends BaseComponentAdapter {
      * @param productId   - The ID of the subscription product to unsubscribe from.
      */
     public final void unsubscribe(Activity activity, String packageName, String productId) {
+        if (connector == null) {
+            return;
+        }
         connector.unsubscribe(activity, packageName, productId);
     }
 
@@ -253,6 +367,9 @@ public class BillingComponent extends BaseComponentAdapter {
      * @return A {@link PurchasedResult} indicating whether the product has been purchased.
      */
     public final PurchasedResult isPurchased(@NonNull ProductInfo productInfo) {
+        if (connector == null) {
+            return PurchasedResult.CLIENT_NOT_READY;
+        }
         return connector.isPurchased(productInfo);
     }
 
@@ -289,6 +406,13 @@ public class BillingComponent extends BaseComponentAdapter {
             }
         }
 
+        @Override
+        public void onProductsFetchCompleted(@NonNull List<ProductInfo> productDetails) {
+            for (BillingEventListeners listener : listeners) {
+                listener.onProductsFetchCompleted(banner, productDetails);
+            }
+        }
+
         @Override
         public void onPurchasedProductsFetched(@NonNull List<PurchaseInfo> purchases) {
             for (BillingEventListeners listener : listeners) {
@@ -317,6 +441,20 @@ public class BillingComponent extends BaseComponentAdapter {
             }
         }
 
+        @Override
+        public void onPendingPurchasesCompleted(@NonNull List<PurchaseInfo> purchases) {
+            for (BillingEventListeners listener : listeners) {
+                listener.onPendingPurchasesCompleted(banner, purchases);
+            }
+        }
+
+        @Override
+        public void onConnectionStateChanged(@NonNull ConnectionState state) {
+            for (BillingEventListeners listener : listeners) {
+                listener.onConnectionStateChanged(banner, state);
+            }
+        }
+
         @Override
         public void onBillingError(@NonNull BillingConnector billingConnector, @NonNull BillingResponse response) {
             for (BillingEventListeners listener : listeners) {
@@ -325,6 +463,41 @@ public class BillingComponent extends BaseComponentAdapter {
         }
     }
 
+    /**
+     * Applies the options of this component to the shared connector before it connects.
+     *
+     * @param connector - The shared connector.
+     */
+    private void configure(@NonNull BillingConnector connector) {
+        if (shouldAutoAcknowledge) {
+            connector.autoAcknowledge();
+        }
+        if (shouldAutoConsume) {
+            connector.autoConsume();
+        }
+        if (shouldEnableLogging) {
+            connector.enableLogging();
+        }
+        if (shouldDeliverProgressively) {
+            connector.deliverProductsProgressively();
+        }
+        if (productCacheTtlMillis > 0) {
+            connector.enableProductCache(productCacheTtlMillis);
+        }
+        if (shouldReconnectOnNetworkAvailable) {
+            connector.reconnectOnNetworkAvailable();
+        }
+        if (parkDelayMillis >= 0) {
+            connector.parkInBackground(parkDelayMillis, catalogMaxAgeMillis);
+        }
+        if (productQueryChunkSize > 0) {
+            connector.setProductQueryChunking(productQueryChunkSize, maxProductQueryChunksInFlight);
+        }
+        if (operationDeadlineMillis > 0) {
+            connector.deferOperationsUntilReady(operationDeadlineMillis);
+        }
+    }
+
     /**
      * Adds a String ids to a List.
      *
@@ -5,6 +5,7 @@ import androidx.annotation.NonNull;
 import com.mct.iap.banner.IapBanner;
 import com.mct.iap.billing.BillingConnector;
 import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ConnectionState;
 import com.mct.iap.billing.models.ProductInfo;
 import com.mct.iap.billing.models.PurchaseInfo;
 
@@ -15,6 +16,9 @@ public abstract class BillingEventListeners {
     public void onProductsFetched(@NonNull IapBanner banner, @NonNull List<ProductInfo> productDetails) {
     }
 
+    public void onProductsFetchCompleted(@NonNull IapBanner banner, @NonNull List<ProductInfo> productDetails) {
+    }
+
     public void onPurchasedProductsFetched(@NonNull IapBanner banner, @NonNull List<PurchaseInfo> purchases) {
     }
 
@@ -27,6 +31,12 @@ public abstract class BillingEventListeners {
     public void onPurchaseConsumed(@NonNull IapBanner banner, @NonNull PurchaseInfo purchase) {
     }
 
+    public void onPendingPurchasesCompleted(@NonNull IapBanner banner, @NonNull List<PurchaseInfo> purchases) {
+    }
+
+    public void onConnectionStateChanged(@NonNull IapBanner banner, @NonNull ConnectionState state) {
+    }
+
     public void onBillingError(@NonNull IapBanner banner, @NonNull BillingConnector billingConnector, @NonNull BillingResponse response) {
     }
 }
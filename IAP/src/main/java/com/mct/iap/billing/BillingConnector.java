@@ -9,6 +9,7 @@ import static com.android.billingclient.api.BillingClient.BillingResponseCode.IT
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.NETWORK_ERROR;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.OK;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.USER_CANCELED;
 import static com.android.billingclient.api.BillingClient.ProductType.INAPP;
@@ -20,9 +21,11 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.android.billingclient.api.AcknowledgePurchaseParams;
 import com.android.billingclient.api.BillingClient;
@@ -33,20 +36,35 @@ import com.android.billingclient.api.ConsumeParams;
 import com.android.billingclient.api.ProductDetails;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.QueryProductDetailsParams;
+import com.mct.iap.billing.enums.CircuitState;
+import com.mct.iap.billing.enums.ConnectionStatus;
 import com.mct.iap.billing.enums.ErrorType;
 import com.mct.iap.billing.enums.PurchasedResult;
 import com.mct.iap.billing.enums.SkuProductType;
 import com.mct.iap.billing.enums.SupportState;
 import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ConnectionState;
+import com.mct.iap.billing.models.EntitlementSnapshot;
 import com.mct.iap.billing.models.ProductInfo;
 import com.mct.iap.billing.models.PurchaseInfo;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
 
 @SuppressWarnings("UnusedReturnValue")
@@ -57,14 +75,40 @@ public class BillingConnector {
 
     private static final long RECONNECT_TIMER_START_MILLISECONDS = 1000L;
     private static final long RECONNECT_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L * 15L;
-    private long reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
-
-    private final String base64Key;
-
-    private Handler handler;
+    private static final long REFRESH_DEBOUNCE_MILLISECONDS = 2000L;
+    private static final int MAX_QUERY_RETRIES = 5;
+
+    private ReconnectPolicy reconnectPolicy = ReconnectPolicy.decorrelatedJitter(RECONNECT_TIMER_START_MILLISECONDS, RECONNECT_TIMER_MAX_TIME_MILLISECONDS);
+    private final Runnable reconnectRunnable = this::startConnection;
+    private final ForegroundTracker.Listener foregroundListener = this::onForegroundChanged;
+    private final Runnable parkRunnable = this::park;
+    private final Runnable drainRunnable = this::drainPurchaseWork;
+    private final Runnable pendingPollRunnable = this::pollPendingPurchases;
+    private final Runnable productRetryRunnable = this::retryProductQuery;
+    private final Runnable reconcileRunnable = this::reconcilePurchases;
+    private int reconnectAttempt = 0;
+    private boolean isReconnectPending = false;
+    private boolean isWaitingForForeground = false;
+    private boolean isProductQueryDeferred = false;
+    private NetworkMonitor networkMonitor;
+
+    private long parkDelayMillis = -1;
+    private long catalogMaxAgeMillis = 0;
+    private long productsFetchedAt = 0;
+    private boolean isParked = false;
+
+    private boolean isConnecting = false;
+    private final SingleFlight productQueryFlight = new SingleFlight(REFRESH_DEBOUNCE_MILLISECONDS);
+    private final SingleFlight purchaseQueryFlight = new SingleFlight(REFRESH_DEBOUNCE_MILLISECONDS);
+    private boolean isReleased = false;
+
+    private final List<String> base64Keys = new CopyOnWriteArrayList<>();
+    private final Context context;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
     private CompositeDisposable disposable;
     private BillingClient billingClient;
-    private BillingEventListener billingEventListener;
+    private volatile BillingEventListener billingEventListener;
 
     private List<String> consumableIds;
     private List<String> nonConsumableIds;
@@ -72,15 +116,43 @@ public class BillingConnector {
 
     private final List<QueryProductDetailsParams.Product> allProductList = new ArrayList<>();
 
-    private final List<ProductInfo> fetchedProductInfoList = new ArrayList<>();
-    private final List<PurchaseInfo> purchasedProductsList = new ArrayList<>();
+    private volatile ProductCatalog catalog = ProductCatalog.EMPTY;
+    private final List<ProductInfo> cachedProductInfoList = new ArrayList<>();
+    private final PurchaseStore purchaseStore = new PurchaseStore();
+
+    //products added at runtime by ensureProducts, the least recently used ones are evicted first
+    private final Map<String, SkuProductType> onDemandProductTypes = new ConcurrentHashMap<>();
+    private final Set<String> onDemandQueryIds = new HashSet<>();
+    private final Map<String, Boolean> productAccessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxCatalogSize = 0;
+
+    private final EntitlementStore entitlementStore;
+    private final PurchaseWorkQueue purchaseWorkQueue;
+    private int maxPurchaseWorkInFlight = 2;
+    private int purchaseWorkInFlight = 0;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final ConnectionHealthMonitor healthMonitor = new ConnectionHealthMonitor(handler, this::recycleConnection);
+    private int productQueryRetryAttempt = 0;
+    private int purchaseReconcileAttempt = 0;
+    private final PendingPurchaseTracker pendingPurchaseTracker = new PendingPurchaseTracker();
+    private final BillingStreams streams = new BillingStreams();
+    private final FutureWaiters waiters = new FutureWaiters();
+    private final DeferredOperationQueue deferredOperations = new DeferredOperationQueue(handler);
+    private long deferredOperationDeadlineMillis = 0;
+    private ProductDetailsCache productDetailsCache;
 
     private boolean shouldAutoAcknowledge = false;
     private boolean shouldAutoConsume = false;
-    private boolean shouldEnableLogging = false;
+    private volatile boolean shouldEnableLogging = false;
+    private boolean shouldDeliverProgressively = false;
+    private int productQueryChunkSize = 0;
+    private int maxProductQueryChunksInFlight = 1;
+    private int verificationParallelism = Security.MAX_PARALLELISM;
 
-    private boolean isConnected = false;
-    private boolean fetchedPurchasedProducts = false;
+    private volatile boolean isConnected = false;
+    private volatile boolean fetchedProducts = false;
+    private volatile boolean fetchedPurchasedProducts = false;
+    private volatile long purchasesFetchedAt = 0;
 
     /**
      * BillingConnector public constructor
@@ -90,7 +162,12 @@ public class BillingConnector {
      */
     public BillingConnector(Context context, String base64Key) {
         this.init(context);
-        this.base64Key = base64Key;
+        this.addBase64Key(base64Key);
+        this.context = context.getApplicationContext();
+        this.entitlementStore = new EntitlementStore(this.context, base64Key, this::Log);
+        this.entitlementStore.load(this::isPurchaseSignatureValid);
+        this.purchaseWorkQueue = new PurchaseWorkQueue(this.context, base64Key, this::Log);
+        this.purchaseWorkQueue.load(this::isPurchaseSignatureValid);
     }
 
     /**
@@ -100,10 +177,14 @@ public class BillingConnector {
         billingClient = BillingClient.newBuilder(context)
                 .enablePendingPurchases()
                 .setListener((billingResult, purchases) -> {
+                    //the answer ends a trial call of a half-open circuit
+                    if (circuitBreaker.onResult(billingResult.getResponseCode())) {
+                        Log("Billing unavailable: pausing billing calls");
+                    }
                     switch (billingResult.getResponseCode()) {
                         case OK:
                             if (purchases != null) {
-                                processPurchases(purchases, false);
+                                Helper.runOnPurchaseThread(() -> processPurchases(purchases, false));
                             }
                             break;
                         case USER_CANCELED:
@@ -115,6 +196,7 @@ public class BillingConnector {
                             Log("Network connection is down." + " Response code: " + billingResult.getResponseCode());
                             findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
                                     new BillingResponse(ErrorType.SERVICE_UNAVAILABLE, billingResult)));
+                            schedulePurchaseReconciliation(billingResult.getResponseCode());
                             break;
                         case BILLING_UNAVAILABLE:
                             Log("Billing API version is not supported for the type requested." + " Response code: " + billingResult.getResponseCode());
@@ -135,6 +217,7 @@ public class BillingConnector {
                             Log("Fatal error during the API action." + " Response code: " + billingResult.getResponseCode());
                             findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
                                     new BillingResponse(ErrorType.ERROR, billingResult)));
+                            schedulePurchaseReconciliation(billingResult.getResponseCode());
                             break;
                         case ITEM_ALREADY_OWNED:
                             Log("Failure to purchase since item is already owned." + " Response code: " + billingResult.getResponseCode());
@@ -147,10 +230,16 @@ public class BillingConnector {
                                     new BillingResponse(ErrorType.ITEM_NOT_OWNED, billingResult)));
                             break;
                         case SERVICE_DISCONNECTED:
-                            Log("Initialization error: service disconnected/timeout. Trying to reconnect...");
+                            Log("Service disconnected during the purchase, checking the purchases once reconnected." + " Response code: " + billingResult.getResponseCode());
+                            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
+                                    new BillingResponse(ErrorType.CLIENT_DISCONNECTED, billingResult)));
+                            schedulePurchaseReconciliation(billingResult.getResponseCode());
                             break;
                         case NETWORK_ERROR:
-                            Log("Initialization error: service network error. Trying to reconnect...");
+                            Log("Network error during the purchase, checking the purchases again." + " Response code: " + billingResult.getResponseCode());
+                            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
+                                    new BillingResponse(ErrorType.NETWORK_ERROR, billingResult)));
+                            schedulePurchaseReconciliation(billingResult.getResponseCode());
                             break;
                         default:
                             Log("Initialization error: " + new BillingResponse(ErrorType.BILLING_ERROR, billingResult));
@@ -167,6 +256,96 @@ public class BillingConnector {
         this.billingEventListener = billingEventListener;
     }
 
+    /**
+     * To accept purchases signed with another public key, e.g. during a key rotation or for another flavor
+     * <p>
+     * A purchase is valid if its signature matches any of the keys
+     */
+    public final BillingConnector addBase64Key(String base64Key) {
+        if (base64Key != null && !base64Key.isEmpty() && !base64Keys.contains(base64Key)) {
+            base64Keys.add(base64Key);
+        }
+        return this;
+    }
+
+    /**
+     * To set how many threads may verify purchase signatures at the same time during large restores
+     * <p>
+     * Use 1 to verify on a single thread, values above the number of cores (max 4) are capped
+     */
+    public final BillingConnector setVerificationParallelism(int parallelism) {
+        verificationParallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * To bound the number of fetched products kept in memory
+     * <p>
+     * Products added by {@link #ensureProducts(SkuProductType, List)} that were not used recently are evicted first,
+     * the products set before connect() are never evicted
+     *
+     * @param maxCatalogSize - is the maximum number of products, 0 for no limit
+     */
+    public final BillingConnector setMaxCatalogSize(int maxCatalogSize) {
+        this.maxCatalogSize = Math.max(0, maxCatalogSize);
+        evictProducts();
+        return this;
+    }
+
+    /**
+     * To set how the billing client reconnects after a failed setup or a disconnection
+     * <p>
+     * Defaults to an exponential backoff with decorrelated jitter from 1 second up to 15 minutes,
+     * the backoff starts over after every successful connection
+     */
+    public final BillingConnector setReconnectPolicy(@NonNull ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    /**
+     * Returns the policy deciding the reconnect attempts
+     */
+    @NonNull
+    public final ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * To reconnect as soon as the device is back online instead of waiting for the scheduled attempt
+     * <p>
+     * Product queries that found nothing while the device was offline are run again as well
+     */
+    public final BillingConnector reconnectOnNetworkAvailable() {
+        if (networkMonitor == null) {
+            networkMonitor = new NetworkMonitor(context, this::onNetworkAvailable, this::Log);
+            if (!allProductList.isEmpty() && !isReleased) {
+                //already connecting, e.g. a shared connector configured by a late leaseholder
+                networkMonitor.start();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * To close the connection and pause reconnect attempts once the app has been in background for the given delay
+     * <p>
+     * When the app comes back, the connection is restored with the catalog and entitlements kept in memory.
+     * The products are queried again only if they are older than catalogMaxAgeMillis, purchases are always refreshed
+     *
+     * @param delayMillis         - is how long the app stays in background before the connection is closed
+     * @param catalogMaxAgeMillis - is how long fetched products are considered fresh
+     */
+    public final BillingConnector parkInBackground(long delayMillis, long catalogMaxAgeMillis) {
+        parkDelayMillis = Math.max(0, delayMillis);
+        this.catalogMaxAgeMillis = catalogMaxAgeMillis;
+        if (!allProductList.isEmpty() && !isReleased) {
+            //already connecting, e.g. a shared connector configured by a late leaseholder
+            watchForeground();
+        }
+        return this;
+    }
+
     /**
      * To set consumable products ids
      */
@@ -191,6 +370,58 @@ public class BillingConnector {
         return this;
     }
 
+    /**
+     * Replaces the products ids with the ones of all the leaseholders, used by {@link BillingConnectorRegistry}
+     *
+     * @return true if at least one new product id was added
+     */
+    final boolean replaceProductIds(List<String> consumableIds, List<String> nonConsumableIds, List<String> subscriptionIds) {
+        boolean added = !containsAll(this.consumableIds, consumableIds)
+                || !containsAll(this.nonConsumableIds, nonConsumableIds)
+                || !containsAll(this.subscriptionIds, subscriptionIds);
+        this.consumableIds = consumableIds;
+        this.nonConsumableIds = nonConsumableIds;
+        this.subscriptionIds = subscriptionIds;
+        return added;
+    }
+
+    /**
+     * Returns the options set on this connector, used by {@link BillingConnectorRegistry}
+     */
+    @NonNull
+    final ConnectorOptions getOptions() {
+        return new ConnectorOptions(shouldAutoAcknowledge, shouldAutoConsume, shouldDeliverProgressively,
+                productQueryChunkSize, maxProductQueryChunksInFlight, verificationParallelism, maxCatalogSize,
+                maxPurchaseWorkInFlight, parkDelayMillis, catalogMaxAgeMillis, deferredOperationDeadlineMillis,
+                reconnectPolicy, networkMonitor, productDetailsCache);
+    }
+
+    /**
+     * Restores options taken by {@link #getOptions()}, used by {@link BillingConnectorRegistry} to undo a rejected configuration
+     */
+    final void restoreOptions(@NonNull ConnectorOptions options) {
+        shouldAutoAcknowledge = options.autoAcknowledge;
+        shouldAutoConsume = options.autoConsume;
+        shouldDeliverProgressively = options.deliverProgressively;
+        productQueryChunkSize = options.productQueryChunkSize;
+        maxProductQueryChunksInFlight = options.maxProductQueryChunksInFlight;
+        verificationParallelism = options.verificationParallelism;
+        maxCatalogSize = options.maxCatalogSize;
+        maxPurchaseWorkInFlight = options.maxPurchaseWorkInFlight;
+        parkDelayMillis = options.parkDelayMillis;
+        catalogMaxAgeMillis = options.catalogMaxAgeMillis;
+        deferredOperationDeadlineMillis = options.deferredOperationDeadlineMillis;
+        reconnectPolicy = options.reconnectPolicy;
+        productDetailsCache = options.productDetailsCache;
+        if (networkMonitor != options.networkMonitor && networkMonitor != null) {
+            networkMonitor.stop();
+        }
+        networkMonitor = options.networkMonitor;
+        if (parkDelayMillis < 0) {
+            findUiHandler().removeCallbacks(parkRunnable);
+        }
+    }
+
     /**
      * To auto acknowledge the purchase
      */
@@ -207,6 +438,70 @@ public class BillingConnector {
         return this;
     }
 
+    /**
+     * To limit the auto acknowledge and consume operations running at the same time
+     * <p>
+     * These operations are persisted until they succeed or their purchase is past the 3 days window, the oldest purchase goes first
+     *
+     * @param maxInFlight - is the maximum number of operations waiting for Play, 2 by default
+     */
+    public final BillingConnector setPurchaseWorkConcurrency(int maxInFlight) {
+        maxPurchaseWorkInFlight = Math.max(1, maxInFlight);
+        return this;
+    }
+
+    /**
+     * To keep fetched product details on disk and show them instantly on the next connection
+     * <p>
+     * Cached products are delivered through onProductsFetched while the fresh query runs, then the fresh
+     * products are delivered as well since only they can be purchased
+     *
+     * @param ttlMillis - is the maximum age of a cached product
+     */
+    public final BillingConnector enableProductCache(long ttlMillis) {
+        productDetailsCache = new ProductDetailsCache(context, ttlMillis, this::Log);
+        return this;
+    }
+
+    /**
+     * To deliver the products of each product type through onProductsFetched as soon as its query returns,
+     * instead of waiting for all of them. onProductsFetchCompleted is called once all types are queried
+     */
+    public final BillingConnector deliverProductsProgressively() {
+        shouldDeliverProgressively = true;
+        return this;
+    }
+
+    /**
+     * To query large catalogs in chunks instead of one request per product type
+     * <p>
+     * Each chunk is merged into the fetched products and delivered through onProductsFetched as soon as it returns.
+     * A failed chunk is retried on its own, so one bad chunk doesn't lose the others.
+     * onProductsFetchCompleted is called once all chunks are queried
+     *
+     * @param chunkSize         - is the maximum number of products per query
+     * @param maxChunksInFlight - is the maximum number of queries running at the same time
+     */
+    public final BillingConnector setProductQueryChunking(int chunkSize, int maxChunksInFlight) {
+        productQueryChunkSize = Math.max(1, chunkSize);
+        maxProductQueryChunksInFlight = Math.max(1, maxChunksInFlight);
+        return this;
+    }
+
+    /**
+     * To hold purchase, subscribe, consume and acknowledge calls made before the client is ready,
+     * instead of reporting CLIENT_NOT_READY
+     * <p>
+     * Held calls are replayed in order once connected and their product fetched. A call still held after
+     * the deadline reports CLIENT_NOT_READY, held calls are cancelled by {@link #release()}
+     *
+     * @param deadlineMillis - is how long a call may be held, 0 to disable
+     */
+    public final BillingConnector deferOperationsUntilReady(long deadlineMillis) {
+        deferredOperationDeadlineMillis = Math.max(0, deadlineMillis);
+        return this;
+    }
+
     /**
      * To enable logging for debugging
      */
@@ -227,7 +522,58 @@ public class BillingConnector {
             Log("Billing client is not ready yet");
         }
 
-        return isConnected && billingClient.isReady() && !fetchedProductInfoList.isEmpty();
+        return isReadyForInteraction();
+    }
+
+    private boolean isReadyForInteraction() {
+        return isConnected && billingClient.isReady() && !catalog.isEmpty();
+    }
+
+    /**
+     * Returns true if an interaction with the product can run now, a product missing after the fetch is reported by the interaction
+     */
+    private boolean canInteract(String productId) {
+        return isReadyForInteraction() && (productId == null || catalog.contains(productId) || fetchedProducts);
+    }
+
+    /**
+     * Holds the operation until the client is ready, if enabled by {@link #deferOperationsUntilReady(long)}
+     *
+     * @param productId - is the product the operation needs
+     * @param operation - calls the interaction again
+     * @param result    - is the future of the interaction (optional), failed if the operation expires
+     * @return true if the operation is held, the caller must return
+     */
+    private boolean deferUntilReady(String productId, @NonNull Runnable operation, @Nullable CompletableFuture<?> result) {
+        if (deferredOperationDeadlineMillis <= 0 || isReleased || canInteract(productId)) {
+            return false;
+        }
+        long deadlineMillis = deferredOperationDeadlineMillis;
+        findUiHandler().post(() -> {
+            Log("Client is not ready yet, holding the operation for " + deadlineMillis + " ms");
+            deferredOperations.add(productId, operation, () -> expireDeferredOperation(result), deadlineMillis);
+            //the client may have become ready in the meantime
+            replayDeferredOperations();
+        });
+        return true;
+    }
+
+    private void replayDeferredOperations() {
+        if (!isReleased && !deferredOperations.isEmpty()) {
+            deferredOperations.replay(this::canInteract);
+        }
+    }
+
+    private void expireDeferredOperation(@Nullable CompletableFuture<?> result) {
+        if (isReleased) {
+            if (result != null) {
+                result.completeExceptionally(new CancellationException("BillingConnector is released"));
+            }
+            return;
+        }
+        BillingResponse response = new BillingResponse(ErrorType.CLIENT_NOT_READY, "Client is not ready yet", defaultResponseCode);
+        billingEventListener.onBillingError(BillingConnector.this, response);
+        fail(result, response);
     }
 
     /**
@@ -236,14 +582,45 @@ public class BillingConnector {
      * @param productId - is the product id that has to be checked
      */
     private boolean checkProductBeforeInteraction(String productId) {
+        return checkProductBeforeInteraction(productId, null);
+    }
+
+    /**
+     * Returns a boolean state of the product, the result is failed with the reported error
+     *
+     * @param productId - is the product id that has to be checked
+     * @param result    - is the future of the interaction (optional)
+     */
+    private boolean checkProductBeforeInteraction(String productId, @Nullable CompletableFuture<?> result) {
+        BillingResponse response;
         if (!isReady()) {
-            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.CLIENT_NOT_READY,
-                    "Client is not ready yet", defaultResponseCode)));
-        } else if (productId != null && fetchedProductInfoList.stream().noneMatch(it -> it.getProduct().equals(productId))) {
-            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.PRODUCT_NOT_EXIST,
-                    "The product id: " + productId + " doesn't seem to exist on Play Console", defaultResponseCode)));
+            response = new BillingResponse(ErrorType.CLIENT_NOT_READY, "Client is not ready yet", defaultResponseCode);
+        } else if (productId != null && !catalog.contains(productId)) {
+            response = new BillingResponse(ErrorType.PRODUCT_NOT_EXIST,
+                    "The product id: " + productId + " doesn't seem to exist on Play Console", defaultResponseCode);
         } else return isReady();
 
+        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+        fail(result, response);
+        return false;
+    }
+
+    /**
+     * Returns true if the circuit breaker lets a Play call through, the result is failed otherwise
+     * <p>
+     * Has to be checked right before the call since a half-open circuit hands out a single permit,
+     * the call then reports its answer through {@link CircuitBreaker#onResult(int)}
+     *
+     * @param result - is the future of the interaction (optional)
+     */
+    private boolean allowBillingCall(@Nullable CompletableFuture<?> result) {
+        if (circuitBreaker.allowRequest()) {
+            return true;
+        }
+        BillingResponse response = new BillingResponse(ErrorType.BILLING_UNAVAILABLE, "Billing is unavailable, calls are paused for "
+                + circuitBreaker.getRemainingOpenMillis() + " ms", BILLING_UNAVAILABLE);
+        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+        fail(result, response);
         return false;
     }
 
@@ -267,227 +644,1159 @@ public class BillingConnector {
         if (nonConsumableIds == null || nonConsumableIds.isEmpty()) {
             nonConsumableIds = null;
         } else {
-            for (String id : nonConsumableIds) {
-                productInAppList.add(QueryProductDetailsParams.Product.newBuilder().setProductId(id).setProductType(INAPP).build());
-            }
+            for (String id : nonConsumableIds) {
+                productInAppList.add(QueryProductDetailsParams.Product.newBuilder().setProductId(id).setProductType(INAPP).build());
+            }
+        }
+
+        if (subscriptionIds == null || subscriptionIds.isEmpty()) {
+            subscriptionIds = null;
+        } else {
+            for (String id : subscriptionIds) {
+                productSubsList.add(QueryProductDetailsParams.Product.newBuilder().setProductId(id).setProductType(SUBS).build());
+            }
+        }
+
+        allProductList.clear();
+        allProductList.addAll(productInAppList);
+        allProductList.addAll(productSubsList);
+
+        //check if any list is provided
+        if (allProductList.isEmpty() && onDemandProductTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one list of consumables, non-consumables or subscriptions is needed");
+        }
+
+        //check for duplicates product ids
+        int allIdsSize = allProductList.size();
+        int allIdsSizeDistinct = (int) allProductList.stream().distinct().count();
+        if (allIdsSize != allIdsSizeDistinct) {
+            throw new IllegalArgumentException("The product id must appear only once in a list. Also, it must not be in different lists");
+        }
+
+        loadCachedProductDetails();
+
+        if (networkMonitor != null) {
+            networkMonitor.start();
+        }
+        //the connection is probed when the app comes back to the foreground
+        watchForeground();
+
+        if (!billingClient.isReady()) {
+            if (isParked) {
+                //parked clients are restored when the app comes back to the foreground
+                return this;
+            }
+            startConnection();
+        } else if (isConnected) {
+            //already connected, query again in case the product ids changed
+            queryProductDetails(allProductList);
+        }
+
+        return this;
+    }
+
+    /**
+     * Starts the billing client connection, the products are queried once it is connected
+     */
+    private void startConnection() {
+        findUiHandler().removeCallbacks(reconnectRunnable);
+        isReconnectPending = false;
+        if (isReleased || billingClient.isReady()) {
+            return;
+        }
+        if (isConnecting) {
+            //the products are queried with the latest ids once the connection in flight is set up
+            Log("Billing service: already connecting");
+            return;
+        }
+        isConnecting = true;
+        Log("Billing service: connecting...");
+        notifyConnectionState(ConnectionStatus.CONNECTING, 0);
+        BillingClient client = billingClient;
+        //a setup that never answers means the client is stuck
+        ConnectionHealthMonitor.Call setupCall = healthMonitor.start(this::recycleConnection);
+        client.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingServiceDisconnected() {
+                if (client != billingClient) {
+                    //a client closed while parking
+                    return;
+                }
+                setupCall.finish();
+                isConnecting = false;
+                isConnected = false;
+
+                BillingResponse response = new BillingResponse(ErrorType.CLIENT_DISCONNECTED,
+                        "Billing service: disconnected", defaultResponseCode);
+                findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+                notifyConnectionState(ConnectionStatus.DISCONNECTED, 0);
+                waiters.fail(FutureWaiters.Topic.CONNECTION, new BillingException(response));
+
+                Log("Billing service: Trying to reconnect...");
+                retryBillingClientConnection();
+            }
+
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                if (client != billingClient) {
+                    return;
+                }
+                setupCall.finish();
+                isConnecting = false;
+                isConnected = false;
+
+                switch (billingResult.getResponseCode()) {
+                    case OK:
+                        isConnected = true;
+                        Log("Billing service: connected");
+                        if (circuitBreaker.onSuccess()) {
+                            Log("Billing service: available again, resuming billing calls");
+                        }
+                        //a flaky episode must not slow down later reconnects
+                        reconnectAttempt = 0;
+                        reconnectPolicy.reset();
+                        notifyConnectionState(ConnectionStatus.CONNECTED, 0);
+                        waiters.check();
+                        replayDeferredOperations();
+                        //work left by a previous session doesn't need the products
+                        drainPurchaseWork();
+                        schedulePendingPurchasePoll();
+                        //start querying
+                        if (allProductList.isEmpty()) {
+                            //only products loaded on demand, purchases are fetched once they are loaded
+                            Log("Billing service: no product set before connect");
+                        } else if (isCatalogFresh()) {
+                            Log("Billing service: products are fresh, only refreshing purchases");
+                            fetchPurchasedProducts();
+                        } else {
+                            queryProductDetails(allProductList);
+                        }
+                        queryOnDemandProducts();
+                        break;
+                    case BILLING_UNAVAILABLE:
+                        Log("Billing service: unavailable");
+                        if (circuitBreaker.onFailure(billingResult.getResponseCode())) {
+                            Log("Billing service: unavailable too many times, pausing billing calls");
+                        }
+                        failConnectionWaiters(billingResult);
+                        retryBillingClientConnection();
+                        break;
+                    default:
+                        Log("Billing service: error");
+                        failConnectionWaiters(billingResult);
+                        retryBillingClientConnection();
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the next connection attempt as decided by the reconnect policy
+     * <p>
+     * With a foreground-only policy, the attempt waits until the app comes back to the foreground
+     */
+    private void retryBillingClientConnection() {
+        findUiHandler().removeCallbacks(reconnectRunnable);
+        if (isReleased || isParked) {
+            return;
+        }
+
+        if (reconnectPolicy.isForegroundOnly()) {
+            ForegroundTracker tracker = ForegroundTracker.get(context);
+            if (tracker != null && !tracker.isForeground()) {
+                Log("Billing service: waiting for the app to come to the foreground");
+                isWaitingForForeground = true;
+                watchForeground();
+                notifyConnectionState(ConnectionStatus.WAITING_FOR_FOREGROUND, 0);
+                return;
+            }
+        }
+
+        long delay = reconnectPolicy.nextDelayMillis(++reconnectAttempt);
+        if (delay < 0) {
+            Log("Billing service: giving up after " + (reconnectAttempt - 1) + " attempts");
+            notifyConnectionState(ConnectionStatus.GAVE_UP, 0);
+            return;
+        }
+        if (circuitBreaker.getState() == CircuitState.OPEN) {
+            //no connection attempt while the circuit is open
+            delay = Math.max(delay, circuitBreaker.getRemainingOpenMillis());
+        }
+        Log("Billing service: reconnecting in " + delay + " ms");
+        isReconnectPending = true;
+        notifyConnectionState(ConnectionStatus.WAITING_TO_RECONNECT, delay);
+        findUiHandler().postDelayed(reconnectRunnable, delay);
+    }
+
+    /**
+     * Cancels the pending backoff and reconnects, or re-runs the product query deferred while offline
+     */
+    private void onNetworkAvailable() {
+        if (isReleased) {
+            return;
+        }
+        if (isReconnectPending) {
+            Log("Network available: reconnecting now");
+            startConnection();
+        } else if (isConnected && isProductQueryDeferred) {
+            Log("Network available: querying products again");
+            isProductQueryDeferred = false;
+            queryProductDetails(allProductList);
+        }
+    }
+
+    private void onForegroundChanged(boolean foreground) {
+        if (isReleased) {
+            return;
+        }
+        if (foreground) {
+            findUiHandler().removeCallbacks(parkRunnable);
+            if (isParked) {
+                unpark();
+            } else if (isWaitingForForeground) {
+                isWaitingForForeground = false;
+                retryBillingClientConnection();
+            } else if (isConnected) {
+                probeConnection();
+            }
+        } else if (parkDelayMillis >= 0) {
+            findUiHandler().removeCallbacks(parkRunnable);
+            findUiHandler().postDelayed(parkRunnable, parkDelayMillis);
+        }
+    }
+
+    /**
+     * Closes the connection and pauses reconnect attempts while the app is in background
+     */
+    private void park() {
+        if (isReleased || isParked) {
+            return;
+        }
+        Log("Billing service: parking in background");
+        isParked = true;
+        isWaitingForForeground = false;
+        if (networkMonitor != null) {
+            networkMonitor.stop();
+        }
+        closeClient();
+        notifyConnectionState(ConnectionStatus.PARKED, 0);
+    }
+
+    /**
+     * Ends the connection of a client that stopped answering and connects a new one
+     * <p>
+     * The products, purchases, pending purchases and queued work are queried again once connected
+     */
+    private void recycleConnection() {
+        if (isReleased || isParked) {
+            return;
+        }
+        Log("Billing service: the connection stopped answering, recycling it");
+        closeClient();
+        notifyConnectionState(ConnectionStatus.DISCONNECTED, 0);
+        init(context);
+        startConnection();
+    }
+
+    /**
+     * Cancels everything in flight on the billing client and ends its connection, a closed client can not be reused
+     */
+    private void closeClient() {
+        isConnected = false;
+        isConnecting = false;
+        productQueryFlight.reset();
+        purchaseQueryFlight.reset();
+        onDemandQueryIds.clear();
+        resetPurchaseWork();
+        healthMonitor.reset();
+        findUiHandler().removeCallbacks(productRetryRunnable);
+        findUiHandler().removeCallbacks(reconcileRunnable);
+        findUiHandler().removeCallbacks(pendingPollRunnable);
+        isReconnectPending = false;
+        findUiHandler().removeCallbacks(reconnectRunnable);
+        if (disposable != null) {
+            disposable.clear();
+        }
+        billingClient.endConnection();
+    }
+
+    /**
+     * Checks with a cheap call that the connected client still answers, e.g. after the app was in background
+     */
+    private void probeConnection() {
+        ConnectionHealthMonitor.Call probeCall = healthMonitor.start(this::recycleConnection);
+        getCompositeDisposable().add(Helper.probeConnection(billingClient, supportState -> {
+            probeCall.finish();
+            if (supportState == SupportState.DISCONNECTED && isConnected) {
+                Log("Billing service: the probe found the connection closed");
+                recycleConnection();
+            }
+        }));
+    }
+
+    /**
+     * Restores the connection closed by {@link #park()}, a closed billing client can not be reused
+     */
+    private void unpark() {
+        Log("Billing service: resuming from background");
+        isParked = false;
+        reconnectAttempt = 0;
+        reconnectPolicy.reset();
+        init(context);
+        if (networkMonitor != null) {
+            networkMonitor.start();
+        }
+        startConnection();
+    }
+
+    private boolean isCatalogFresh() {
+        return catalogMaxAgeMillis > 0 && fetchedProducts && !catalog.isEmpty()
+                && SystemClock.elapsedRealtime() - productsFetchedAt < catalogMaxAgeMillis;
+    }
+
+    private void watchForeground() {
+        ForegroundTracker tracker = ForegroundTracker.get(context);
+        if (tracker == null) {
+            return;
+        }
+        tracker.addListener(foregroundListener);
+        if (parkDelayMillis >= 0 && !tracker.isForeground() && !isParked) {
+            findUiHandler().removeCallbacks(parkRunnable);
+            findUiHandler().postDelayed(parkRunnable, parkDelayMillis);
+        }
+    }
+
+    private void unwatchForeground() {
+        ForegroundTracker tracker = ForegroundTracker.get(context);
+        if (tracker != null) {
+            tracker.removeListener(foregroundListener);
+        }
+    }
+
+    /**
+     * Fails the futures waiting for the connection, the reconnect attempts go on
+     */
+    private void failConnectionWaiters(@NonNull BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        waiters.fail(FutureWaiters.Topic.CONNECTION, new BillingException(new BillingResponse(ErrorPolicy.toErrorType(responseCode),
+                "Billing service: setup failed: " + billingResult.getDebugMessage(), responseCode)));
+    }
+
+    private void notifyConnectionState(ConnectionStatus status, long retryDelayMillis) {
+        ConnectionState state = new ConnectionState(status, reconnectAttempt, retryDelayMillis, reconnectPolicy);
+        findUiHandler().post(() -> {
+            streams.onConnectionStateChanged(state);
+            billingEventListener.onConnectionStateChanged(state);
+        });
+        if (status == ConnectionStatus.GAVE_UP) {
+            findUiHandler().post(deferredOperations::expireAll);
+            waiters.failAll(new BillingException(new BillingResponse(ErrorType.CLIENT_NOT_READY,
+                    "Billing service: gave up reconnecting", defaultResponseCode)));
+        }
+    }
+
+    /**
+     * Loads products that were not set before connect(), e.g. while the user scrolls a store page
+     * <p>
+     * Only the ids that are not fetched yet are queried, they are delivered through onProductsFetched.
+     * If the billing client is not connected yet, they are queried once it is
+     *
+     * @param skuProductType - is the type of all the given products
+     * @param productIds     - are the products ids to load
+     */
+    public final BillingConnector ensureProducts(@NonNull SkuProductType skuProductType, @NonNull List<String> productIds) {
+        for (String productId : productIds) {
+            if (catalog.contains(productId)) {
+                touchProduct(productId);
+            } else if (productId != null && !productId.isEmpty()) {
+                onDemandProductTypes.put(productId, skuProductType);
+            }
+        }
+        if (isConnected && billingClient.isReady()) {
+            queryOnDemandProducts();
+        }
+        return this;
+    }
+
+    /**
+     * Queries the products added by ensureProducts that are neither fetched nor being queried
+     */
+    private void queryOnDemandProducts() {
+        List<QueryProductDetailsParams.Product> products = new ArrayList<>();
+        for (Map.Entry<String, SkuProductType> entry : onDemandProductTypes.entrySet()) {
+            String productId = entry.getKey();
+            if (catalog.contains(productId) || onDemandQueryIds.contains(productId)) {
+                continue;
+            }
+            String productType = entry.getValue() == SkuProductType.SUBSCRIPTION ? SUBS : INAPP;
+            products.add(QueryProductDetailsParams.Product.newBuilder().setProductId(productId).setProductType(productType).build());
+        }
+        if (products.isEmpty()) {
+            return;
+        }
+        Set<String> productIds = products.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toSet());
+        onDemandQueryIds.addAll(productIds);
+        Log("Query Product Details: loading " + productIds.size() + " products on demand");
+
+        List<ProductInfo> receivedProductInfo = new ArrayList<>();
+        getCompositeDisposable().add(Helper.queryProductDetailsProgressive(billingClient, products,
+                productDetails -> {
+                    List<ProductInfo> fetchedProductInfo = onProductDetailsFetched(productDetails, false);
+                    fetchedProductInfo.forEach(it -> touchProduct(it.getProduct()));
+                    receivedProductInfo.addAll(fetchedProductInfo);
+                },
+                failure -> {
+                    if (failure != null) {
+                        onQueryFailed(failure);
+                        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, failure));
+                    }
+                    onDemandQueryIds.removeAll(productIds);
+                    evictProducts();
+                    waiters.check();
+                    if (failure != null) {
+                        waiters.fail(FutureWaiters.Topic.PRODUCTS, new BillingException(failure));
+                    }
+                    replayDeferredOperations();
+                    if (!receivedProductInfo.isEmpty()) {
+                        //owned products are only reported once their details are known
+                        fetchPurchasedProducts();
+                    }
+                }));
+    }
+
+    /**
+     * Marks the product as recently used
+     */
+    private void touchProduct(String productId) {
+        if (productId == null) {
+            return;
+        }
+        synchronized (productAccessOrder) {
+            productAccessOrder.put(productId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes the least recently used on-demand products while the catalog is larger than its bound
+     */
+    private void evictProducts() {
+        ProductCatalog catalog = this.catalog;
+        if (maxCatalogSize <= 0 || catalog.size() <= maxCatalogSize) {
+            return;
+        }
+        Set<String> pinnedIds = allProductList.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toSet());
+        List<String> evictedIds = new ArrayList<>();
+        int excess = catalog.size() - maxCatalogSize;
+        synchronized (productAccessOrder) {
+            Iterator<String> iterator = productAccessOrder.keySet().iterator();
+            while (iterator.hasNext() && evictedIds.size() < excess) {
+                String productId = iterator.next();
+                if (!pinnedIds.contains(productId) && onDemandProductTypes.containsKey(productId)) {
+                    evictedIds.add(productId);
+                    iterator.remove();
+                }
+            }
+        }
+        if (evictedIds.isEmpty()) {
+            return;
+        }
+        Log("Product catalog: evicting " + evictedIds.size() + " products");
+        onDemandProductTypes.keySet().removeAll(evictedIds);
+        this.catalog = catalog.remove(evictedIds);
+        //the streams are main thread only, setMaxCatalogSize may be called from any thread
+        findUiHandler().post(streams::onCatalogChanged);
+    }
+
+    /**
+     * Fires a query in Play Console to show products available to purchase
+     */
+    private void queryProductDetails(List<QueryProductDetailsParams.Product> productList) {
+        List<QueryProductDetailsParams.Product> products = new ArrayList<>(productList);
+        if (products.isEmpty()) {
+            //only products loaded on demand
+            return;
+        }
+        Set<String> productIds = products.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toSet());
+        if (!productQueryFlight.tryStart(productIds)) {
+            Log("Query Product Details: the same query is in flight or just done, skipped");
+            return;
+        }
+
+        List<ProductInfo> receivedProductInfo = new ArrayList<>();
+        if (productQueryChunkSize > 0) {
+            getCompositeDisposable().add(Helper.queryProductDetailsChunked(billingClient, products,
+                    productQueryChunkSize, maxProductQueryChunksInFlight,
+                    productDetails -> receivedProductInfo.addAll(onProductDetailsFetched(productDetails, false)),
+                    failure -> {
+                        onProductDetailsCompleted(products, receivedProductInfo, failure);
+                        onProductQueryFinished(failure == null && !receivedProductInfo.isEmpty());
+                    }));
+        } else if (shouldDeliverProgressively) {
+            getCompositeDisposable().add(Helper.queryProductDetailsProgressive(billingClient, products,
+                    productDetails -> receivedProductInfo.addAll(onProductDetailsFetched(productDetails, false)),
+                    failure -> {
+                        onProductDetailsCompleted(products, receivedProductInfo, failure);
+                        onProductQueryFinished(failure == null && !receivedProductInfo.isEmpty());
+                    }));
+        } else {
+            getCompositeDisposable().add(Helper.queryProductDetails(billingClient, products, (productDetails, failure) -> {
+                receivedProductInfo.addAll(onProductDetailsFetched(productDetails, true));
+                onProductDetailsCompleted(products, receivedProductInfo, failure);
+                onProductQueryFinished(failure == null && !receivedProductInfo.isEmpty());
+            }));
+        }
+    }
+
+    /**
+     * Queries the products again after a transient failure, at most 5 times in a row
+     * <p>
+     * Further attempts are left to the network monitor and the next connection
+     */
+    private void scheduleProductQueryRetry(@NonNull BillingResponse failure) {
+        int responseCode = failure.getResponseCode();
+        if (!ErrorPolicy.isRetryable(responseCode) || productQueryRetryAttempt >= MAX_QUERY_RETRIES) {
+            return;
+        }
+        long delay = ErrorPolicy.backoffMillis(responseCode, ++productQueryRetryAttempt);
+        if (circuitBreaker.getState() == CircuitState.OPEN) {
+            delay = Math.max(delay, circuitBreaker.getRemainingOpenMillis());
+        }
+        Log("Query Product Details: retrying in " + delay + " ms");
+        findUiHandler().removeCallbacks(productRetryRunnable);
+        findUiHandler().postDelayed(productRetryRunnable, delay);
+    }
+
+    private void retryProductQuery() {
+        if (!isReleased && isConnected) {
+            queryProductDetails(allProductList);
+        }
+    }
+
+    /**
+     * Counts a failed query for the circuit breaker
+     */
+    private void onQueryFailed(@NonNull BillingResponse failure) {
+        if (failure.getResponseCode() == SERVICE_TIMEOUT) {
+            healthMonitor.onTimeout();
+        } else if (failure.getErrorType() != ErrorType.CLIENT_NOT_READY) {
+            healthMonitor.onAnswer();
+        }
+        if (circuitBreaker.onFailure(failure.getResponseCode())) {
+            Log("Billing unavailable: pausing billing calls for " + circuitBreaker.getRemainingOpenMillis() + " ms");
+        }
+    }
+
+    /**
+     * Starts the query requested with other product ids while the previous one was in flight
+     */
+    private void onProductQueryFinished(boolean success) {
+        if (productQueryFlight.finish(success) && isConnected) {
+            queryProductDetails(allProductList);
+        }
+    }
+
+    /**
+     * Stores a batch of fetched products and notifies it, also when the cache already showed the same pricing
+     * since the cached products hold no {@link ProductDetails}
+     *
+     * @param replace - true to replace all products fetched before, false to only update the received ones
+     */
+    @NonNull
+    private List<ProductInfo> onProductDetailsFetched(@NonNull List<ProductDetails> productDetails, boolean replace) {
+        if (productDetails.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Log("Query Product Details: data found");
+
+        List<ProductInfo> fetchedProductInfo = productDetails.stream().map(this::generateProductInfo).collect(Collectors.toList());
+        Set<String> fetchedProductIds = fetchedProductInfo.stream().map(ProductInfo::getProduct).collect(Collectors.toSet());
+        //the catalog is rebuilt and swapped at once, products loaded on demand are kept
+        if (replace) {
+            List<ProductInfo> onDemandProductInfo = catalog.getProducts().stream()
+                    .filter(it -> onDemandProductTypes.containsKey(it.getProduct()) && !fetchedProductIds.contains(it.getProduct()))
+                    .collect(Collectors.toList());
+            catalog = ProductCatalog.of(fetchedProductInfo).merge(onDemandProductInfo);
+        } else {
+            catalog = catalog.merge(fetchedProductInfo);
+        }
+        streams.onCatalogChanged();
+        waiters.check();
+        replayDeferredOperations();
+
+        List<ProductInfo> cachedProductInfo = cachedProductInfoList.stream().filter(it -> fetchedProductIds.contains(it.getProduct())).collect(Collectors.toList());
+        boolean sameAsCache = !cachedProductInfo.isEmpty() && ProductDetailsCache.isSamePricing(cachedProductInfo, fetchedProductInfo);
+        cachedProductInfoList.removeAll(cachedProductInfo);
+
+        if (sameAsCache) {
+            //LazyTextComponent only sets the texts that changed, so the UI is not rendered again
+            Log("Query Product Details: same pricing as cache");
+        }
+        findUiHandler().post(() -> billingEventListener.onProductsFetched(fetchedProductInfo));
+        return fetchedProductInfo;
+    }
+
+    /**
+     * Called once all product types are queried
+     */
+    private void onProductDetailsCompleted(List<QueryProductDetailsParams.Product> productList,
+                                           @NonNull List<ProductInfo> receivedProductInfo,
+                                           @Nullable BillingResponse failure) {
+        if (failure != null) {
+            //a failed query is reported as is, not as missing products
+            Log("Query Product Details: failed, " + failure);
+            onQueryFailed(failure);
+            scheduleProductQueryRetry(failure);
+            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, failure));
+        } else {
+            productQueryRetryAttempt = 0;
+            healthMonitor.onAnswer();
+            if (circuitBreaker.onSuccess()) {
+                Log("Billing service: available again, resuming billing calls");
+            }
+        }
+        if (receivedProductInfo.isEmpty()) {
+            isProductQueryDeferred = true;
+            BillingResponse response = failure;
+            if (response == null) {
+                Log("Query Product Details: data not found. Make sure product ids are configured on Play Console");
+                response = new BillingResponse(ErrorType.BILLING_ERROR, "No product found", defaultResponseCode);
+                BillingResponse notFound = response;
+                findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, notFound));
+            }
+            //nothing to wait for until the next query
+            waiters.fail(FutureWaiters.Topic.CONNECTION, new BillingException(response));
+            waiters.fail(FutureWaiters.Topic.PRODUCTS, new BillingException(response));
+            return;
+        }
+
+        fetchedProducts = true;
+        isProductQueryDeferred = false;
+        productsFetchedAt = SystemClock.elapsedRealtime();
+        waiters.check();
+        if (failure != null) {
+            //a product of a failed type is not known to be missing
+            waiters.fail(FutureWaiters.Topic.PRODUCTS, new BillingException(failure));
+        }
+        replayDeferredOperations();
+        List<ProductInfo> allProductInfo = new ArrayList<>(catalog.getProducts());
+        if (productDetailsCache != null) {
+            getCompositeDisposable().add(Helper.saveProductDetailsCache(productDetailsCache, allProductInfo));
+        }
+        findUiHandler().post(() -> billingEventListener.onProductsFetchCompleted(allProductInfo));
+
+        List<String> fetchedProductIds = receivedProductInfo.stream().map(ProductInfo::getProduct).collect(Collectors.toList());
+        Set<String> productListIds = productList.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toSet()); //according to the documentation "zza" is the product id
+        boolean isFetched = fetchedProductIds.stream().anyMatch(productListIds::contains);
+
+        if (isFetched) {
+            fetchPurchasedProducts();
+        }
+    }
+
+    /**
+     * Delivers the cached products while the fresh query is running
+     */
+    private void loadCachedProductDetails() {
+        if (productDetailsCache == null || !catalog.isEmpty() || !cachedProductInfoList.isEmpty()) {
+            return;
+        }
+        List<String> productIds = allProductList.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toList());
+        getCompositeDisposable().add(Helper.loadProductDetailsCache(productDetailsCache, productIds, cachedProducts -> {
+            if (cachedProducts.isEmpty() || !catalog.isEmpty()) {
+                return;
+            }
+            Log("Product cache: " + cachedProducts.size() + " products loaded");
+
+            cachedProductInfoList.clear();
+            cachedProductInfoList.addAll(cachedProducts);
+            streams.onCatalogChanged();
+
+            findUiHandler().post(() -> billingEventListener.onProductsFetched(cachedProducts));
+        }));
+    }
+
+    /**
+     * Returns a new ProductInfo object containing the product type and product details
+     *
+     * @param productDetails - is the object provided by the billing client API
+     */
+    @NonNull
+    private ProductInfo generateProductInfo(@NonNull ProductDetails productDetails) {
+        SkuProductType skuProductType;
+
+        switch (productDetails.getProductType()) {
+            case INAPP:
+                boolean consumable = isProductIdConsumable(productDetails.getProductId());
+                if (consumable) {
+                    skuProductType = SkuProductType.CONSUMABLE;
+                } else {
+                    skuProductType = SkuProductType.NON_CONSUMABLE;
+                }
+                break;
+            case SUBS:
+                skuProductType = SkuProductType.SUBSCRIPTION;
+                break;
+            default:
+                throw new IllegalStateException("Product type is not implemented correctly");
+        }
+
+        return new ProductInfo(skuProductType, productDetails);
+    }
+
+    private boolean isProductIdConsumable(String productId) {
+        if (onDemandProductTypes.get(productId) == SkuProductType.CONSUMABLE) {
+            return true;
+        }
+
+        if (consumableIds == null) {
+            return false;
+        }
+
+        return consumableIds.contains(productId);
+    }
+
+    /**
+     * Returns purchases details for currently owned items without a network request
+     */
+    private void fetchPurchasedProducts() {
+        if (billingClient.isReady()) {
+            //purchases are mapped to the fetched products, so a changed catalog is a different query
+            if (!purchaseQueryFlight.tryStart(catalog)) {
+                Log("Query Purchases: the query is in flight or just done, skipped");
+                return;
+            }
+            getCompositeDisposable().add(Helper.queryPurchases(billingClient, (purchases, failure) -> {
+                try {
+                    if (failure != null) {
+                        //the owned products are kept, a failed query doesn't mean they are gone
+                        Log("Query Purchases: failed, " + failure);
+                        onQueryFailed(failure);
+                        waiters.fail(FutureWaiters.Topic.PURCHASES, new BillingException(failure));
+                        billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.FETCH_PURCHASED_PRODUCTS_ERROR,
+                                failure.getDebugMessage(), failure.getResponseCode()));
+                        schedulePurchaseReconciliation(failure.getResponseCode());
+                        return;
+                    }
+                    if (purchases.isEmpty()) {
+                        Log("Query Purchases: the list is empty");
+                    } else {
+                        Log("Query Purchases: data found and progress");
+                    }
+                    circuitBreaker.onSuccess();
+                    healthMonitor.onAnswer();
+                    Helper.runOnPurchaseThread(() -> processPurchases(purchases, true));
+                } finally {
+                    if (purchaseQueryFlight.finish(failure == null)) {
+                        findUiHandler().post(this::fetchPurchasedProducts);
+                    }
+                }
+            }));
+        } else {
+            BillingResponse response = new BillingResponse(ErrorType.FETCH_PURCHASED_PRODUCTS_ERROR,
+                    "Billing client is not ready yet", defaultResponseCode);
+            waiters.fail(FutureWaiters.Topic.PURCHASES, new BillingException(response));
+            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+        }
+    }
+
+    /**
+     * Queries the purchases again after a failed query or an interrupted purchase flow, the purchase may have gone through anyway
+     * <p>
+     * Called on the main thread, at most 5 times in a row
+     */
+    private void schedulePurchaseReconciliation(int responseCode) {
+        if (isReleased || !ErrorPolicy.isRetryable(responseCode) || purchaseReconcileAttempt >= MAX_QUERY_RETRIES) {
+            return;
+        }
+        long delay = ErrorPolicy.backoffMillis(responseCode, ++purchaseReconcileAttempt);
+        Log("Query Purchases: checking the purchases again in " + delay + " ms");
+        findUiHandler().removeCallbacks(reconcileRunnable);
+        findUiHandler().postDelayed(reconcileRunnable, delay);
+    }
+
+    private void reconcilePurchases() {
+        if (isReleased) {
+            return;
+        }
+        if (isConnected && billingClient.isReady()) {
+            fetchPurchasedProducts();
+        } else if (!isConnecting && !isReconnectPending && !isParked && !isWaitingForForeground) {
+            //the purchases are fetched once connected
+            retryBillingClientConnection();
+        }
+    }
+
+    /**
+     * Returns the state of the circuit breaker, calls to Play are paused while it is open
+     * <p>
+     * The circuit opens after repeated BILLING_UNAVAILABLE results, e.g. no Play account on the device.
+     * Purchases and queries fail at once with BILLING_UNAVAILABLE and reconnect attempts wait until it half-opens
+     */
+    @NonNull
+    public final CircuitState getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Before using subscriptions, device-support must be checked
+     * Not all devices support subscriptions
+     */
+    public SupportState isSubscriptionSupported() {
+        return Helper.isSubscriptionSupported(billingClient);
+    }
+
+    /**
+     * Returns the fetched product with the given id, or null if it is not fetched (yet)
+     */
+    @Nullable
+    public final ProductInfo getProduct(String productId) {
+        ProductInfo productInfo = catalog.get(productId);
+        if (productInfo != null) {
+            touchProduct(productId);
+        }
+        return productInfo;
+    }
+
+    /**
+     * Returns a copy of the products fetched so far, or of the cached products if nothing is fetched yet
+     */
+    @NonNull
+    final List<ProductInfo> getFetchedProducts() {
+        ProductCatalog catalog = this.catalog;
+        if (catalog.isEmpty()) {
+            return new ArrayList<>(cachedProductInfoList);
+        }
+        return new ArrayList<>(catalog.getProducts());
+    }
+
+    /**
+     * Returns a copy of the purchased products known so far
+     */
+    @NonNull
+    final List<PurchaseInfo> getPurchasedProducts() {
+        return purchaseStore.getAll();
+    }
+
+    /**
+     * Returns true once all product types have been queried
+     */
+    final boolean isProductsFetchCompleted() {
+        return fetchedProducts;
+    }
+
+    /**
+     * Returns true once the purchased products have been queried
+     */
+    final boolean isPurchasedProductsFetched() {
+        return fetchedPurchasedProducts;
+    }
+
+    /**
+     * Checks purchases signature for more security
+     * <p>
+     * Runs on the purchase thread: verify and map to PurchaseInfo, then the purchases are applied on main
+     */
+    private void processPurchases(@NonNull List<Purchase> allPurchases, boolean purchasedProductsFetched) {
+        //verify: keep signature valid purchases only
+        List<Purchase> validPurchases = filterValidPurchases(allPurchases);
+
+        //map: one PurchaseInfo per fetched product of each purchase
+        List<PurchaseInfo> signatureValidPurchases = generatePurchaseInfo(validPurchases);
+
+        findUiHandler().post(() -> applyPurchases(validPurchases, signatureValidPurchases, purchasedProductsFetched));
+    }
+
+    /**
+     * Indexes the verified purchases, tracks the pending ones, notifies the listener and queues the auto consume
+     * and acknowledge operations
+     * <p>
+     * Called on the main thread, like the billing callbacks and the purchase work
+     */
+    private void applyPurchases(@NonNull List<Purchase> validPurchases, @NonNull List<PurchaseInfo> signatureValidPurchases,
+                                boolean purchasedProductsFetched) {
+        if (isReleased) {
+            return;
+        }
+        //index: update the stores before anyone is notified
+        if (purchasedProductsFetched) {
+            entitlementStore.replace(validPurchases);
+            purchaseStore.replaceAll(signatureValidPurchases);
+            fetchedPurchasedProducts = true;
+            purchasesFetchedAt = SystemClock.elapsedRealtime();
+            purchaseReconcileAttempt = 0;
+        } else {
+            entitlementStore.add(validPurchases);
+            purchaseStore.putAll(signatureValidPurchases);
         }
 
-        if (subscriptionIds == null || subscriptionIds.isEmpty()) {
-            subscriptionIds = null;
-        } else {
-            for (String id : subscriptionIds) {
-                productSubsList.add(QueryProductDetailsParams.Product.newBuilder().setProductId(id).setProductType(SUBS).build());
+        //track: pending purchases are re-queried until their payment completes or is cancelled
+        boolean pendingTracked = false;
+        Set<String> completedTokens = new HashSet<>();
+        for (PurchaseInfo purchaseInfo : signatureValidPurchases) {
+            Purchase purchase = purchaseInfo.getPurchase();
+            if (purchase.getPurchaseState() == Purchase.PurchaseState.PENDING) {
+                String productType = purchaseInfo.getSkuProductType() == SkuProductType.SUBSCRIPTION ? SUBS : INAPP;
+                pendingTracked |= pendingPurchaseTracker.track(purchase.getPurchaseToken(), productType);
+            } else if (purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED
+                    && pendingPurchaseTracker.untrack(purchase.getPurchaseToken())) {
+                completedTokens.add(purchase.getPurchaseToken());
             }
         }
-
-        allProductList.clear();
-        allProductList.addAll(productInAppList);
-        allProductList.addAll(productSubsList);
-
-        //check if any list is provided
-        if (allProductList.isEmpty()) {
-            throw new IllegalArgumentException("At least one list of consumables, non-consumables or subscriptions is needed");
+        List<PurchaseInfo> completedPurchases = signatureValidPurchases.stream()
+                .filter(purchaseInfo -> completedTokens.contains(purchaseInfo.getPurchase().getPurchaseToken()))
+                .collect(Collectors.toList());
+        if (pendingTracked) {
+            schedulePendingPurchasePoll();
         }
 
-        //check for duplicates product ids
-        int allIdsSize = allProductList.size();
-        int allIdsSizeDistinct = (int) allProductList.stream().distinct().count();
-        if (allIdsSize != allIdsSizeDistinct) {
-            throw new IllegalArgumentException("The product id must appear only once in a list. Also, it must not be in different lists");
+        //dispatch
+        if (!completedPurchases.isEmpty()) {
+            billingEventListener.onPendingPurchasesCompleted(completedPurchases);
+        }
+        streams.onEntitlementsChanged();
+        if (purchasedProductsFetched) {
+            waiters.check();
+            billingEventListener.onPurchasedProductsFetched(signatureValidPurchases);
+        } else {
+            streams.onPurchasesUpdated(signatureValidPurchases);
+            billingEventListener.onProductsPurchased(signatureValidPurchases);
         }
 
-        Log("Billing service: connecting...");
-        if (!billingClient.isReady()) {
-            billingClient.startConnection(new BillingClientStateListener() {
-                @Override
-                public void onBillingServiceDisconnected() {
-                    isConnected = false;
-
-                    findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.CLIENT_DISCONNECTED,
-                            "Billing service: disconnected", defaultResponseCode)));
-
-                    Log("Billing service: Trying to reconnect...");
-                    retryBillingClientConnection();
+        //work: queue auto consume and acknowledge, the queue is persisted until they succeed
+        boolean queued = false;
+        for (PurchaseInfo purchaseInfo : signatureValidPurchases) {
+            Purchase purchase = purchaseInfo.getPurchase();
+            boolean isProductConsumable = purchaseInfo.getSkuProductType() == SkuProductType.CONSUMABLE;
+            if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                //reports the pending warning
+                if (shouldAutoConsume && isProductConsumable) {
+                    consumePurchase(purchaseInfo);
                 }
-
-                @Override
-                public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
-                    isConnected = false;
-
-                    switch (billingResult.getResponseCode()) {
-                        case OK:
-                            isConnected = true;
-                            Log("Billing service: connected");
-                            //start querying
-                            queryProductDetails(allProductList);
-                            break;
-                        case BILLING_UNAVAILABLE:
-                            Log("Billing service: unavailable");
-                            retryBillingClientConnection();
-                            break;
-                        default:
-                            Log("Billing service: error");
-                            retryBillingClientConnection();
-                            break;
-                    }
+                if (shouldAutoAcknowledge && !isProductConsumable) {
+                    acknowledgePurchase(purchaseInfo);
                 }
-            });
+            } else if (isProductConsumable) {
+                if (shouldAutoConsume) {
+                    queued |= purchaseWorkQueue.add(PurchaseWorkQueue.Operation.CONSUME, purchase);
+                }
+            } else if (purchase.isAcknowledged()) {
+                purchaseWorkQueue.cancel(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase.getPurchaseToken());
+            } else if (shouldAutoAcknowledge) {
+                queued |= purchaseWorkQueue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase);
+            }
+        }
+        if (queued) {
+            drainPurchaseWork();
         }
-
-        return this;
     }
 
     /**
-     * Retries the billing client connection with exponential backoff
-     * Max out at the time specified by RECONNECT_TIMER_MAX_TIME_MILLISECONDS (15 minutes)
+     * Schedules the next re-query of the pending purchases, faster after a new one is tracked
      */
-    private void retryBillingClientConnection() {
-        findUiHandler().postDelayed(this::connect, reconnectMilliseconds);
-        reconnectMilliseconds = Math.min(reconnectMilliseconds * 2, RECONNECT_TIMER_MAX_TIME_MILLISECONDS);
+    private void schedulePendingPurchasePoll() {
+        findUiHandler().removeCallbacks(pendingPollRunnable);
+        if (isReleased || pendingPurchaseTracker.isEmpty()) {
+            return;
+        }
+        long delay = pendingPurchaseTracker.nextDelayMillis();
+        Log("Pending purchases: checking again in " + delay + " ms");
+        findUiHandler().postDelayed(pendingPollRunnable, delay);
     }
 
     /**
-     * Fires a query in Play Console to show products available to purchase
+     * Re-queries only the product types having pending purchases
      */
-    private void queryProductDetails(List<QueryProductDetailsParams.Product> productList) {
-        getCompositeDisposable().add(Helper.queryProductDetails(billingClient, productList, (productDetails) -> {
-            if (productDetails.isEmpty()) {
-                Log("Query Product Details: data not found. Make sure product ids are configured on Play Console");
-
-                findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.BILLING_ERROR,
-                        "No product found", defaultResponseCode)));
+    private void pollPendingPurchases() {
+        if (isReleased || pendingPurchaseTracker.isEmpty() || !isConnected || !billingClient.isReady()) {
+            //polled again once connected
+            return;
+        }
+        getCompositeDisposable().add(Helper.queryPurchases(billingClient, pendingPurchaseTracker.getProductTypes(), (purchases, failure) -> {
+            if (failure != null) {
+                Log("Pending purchases: query failed, " + failure);
+                onQueryFailed(failure);
             } else {
-                Log("Query Product Details: data found");
-
-                List<ProductInfo> fetchedProductInfo = productDetails.stream().map(this::generateProductInfo).collect(Collectors.toList());
-                fetchedProductInfoList.clear();
-                fetchedProductInfoList.addAll(fetchedProductInfo);
-
-                findUiHandler().post(() -> billingEventListener.onProductsFetched(fetchedProductInfo));
-
-                List<String> fetchedProductIds = fetchedProductInfo.stream().map(ProductInfo::getProduct).collect(Collectors.toList());
-                List<String> productListIds = productList.stream().map(QueryProductDetailsParams.Product::zza).collect(Collectors.toList()); //according to the documentation "zza" is the product id
-                boolean isFetched = fetchedProductIds.stream().anyMatch(productListIds::contains);
-
-                if (isFetched) {
-                    fetchPurchasedProducts();
+                Set<String> pendingTokens = pendingPurchaseTracker.getPurchaseTokens();
+                Set<String> ownedTokens = new HashSet<>();
+                List<Purchase> changedPurchases = new ArrayList<>();
+                for (Purchase purchase : purchases) {
+                    ownedTokens.add(purchase.getPurchaseToken());
+                    if (pendingTokens.contains(purchase.getPurchaseToken())
+                            && purchase.getPurchaseState() != Purchase.PurchaseState.PENDING) {
+                        changedPurchases.add(purchase);
+                    }
+                }
+                for (String purchaseToken : pendingTokens) {
+                    if (!ownedTokens.contains(purchaseToken)) {
+                        Log("Pending purchases: payment cancelled or expired");
+                        pendingPurchaseTracker.untrack(purchaseToken);
+                    }
+                }
+                if (!changedPurchases.isEmpty()) {
+                    //delivered as a purchase update, so auto acknowledge and consume apply
+                    Helper.runOnPurchaseThread(() -> processPurchases(changedPurchases, false));
                 }
             }
+            schedulePendingPurchasePoll();
         }));
     }
 
     /**
-     * Returns a new ProductInfo object containing the product type and product details
-     *
-     * @param productDetails - is the object provided by the billing client API
+     * Starts the due acknowledge and consume operations, up to the concurrency limit
+     * <p>
+     * Called on the main thread, the billing callbacks are delivered there too
      */
-    @NonNull
-    private ProductInfo generateProductInfo(@NonNull ProductDetails productDetails) {
-        SkuProductType skuProductType;
-
-        switch (productDetails.getProductType()) {
-            case INAPP:
-                boolean consumable = isProductIdConsumable(productDetails.getProductId());
-                if (consumable) {
-                    skuProductType = SkuProductType.CONSUMABLE;
-                } else {
-                    skuProductType = SkuProductType.NON_CONSUMABLE;
-                }
+    private void drainPurchaseWork() {
+        findUiHandler().removeCallbacks(drainRunnable);
+        if (isReleased || !isConnected || !billingClient.isReady()) {
+            //resumed once connected
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PurchaseWorkQueue.Work expired : purchaseWorkQueue.removeExpired(now)) {
+            onPurchaseWorkExpired(expired);
+        }
+        while (purchaseWorkInFlight < maxPurchaseWorkInFlight) {
+            long dueAt = purchaseWorkQueue.nextAttemptAt();
+            if (dueAt < 0 || dueAt > now) {
                 break;
-            case SUBS:
-                skuProductType = SkuProductType.SUBSCRIPTION;
+            }
+            //a half-open circuit lets a single operation through
+            if (!circuitBreaker.allowRequest()) {
+                findUiHandler().postDelayed(drainRunnable, Math.max(1, circuitBreaker.getRemainingOpenMillis()));
+                return;
+            }
+            PurchaseWorkQueue.Work work = purchaseWorkQueue.poll(now);
+            if (work == null) {
                 break;
-            default:
-                throw new IllegalStateException("Product type is not implemented correctly");
+            }
+            purchaseWorkInFlight++;
+            runPurchaseWork(work);
+        }
+        long nextAttemptAt = purchaseWorkQueue.nextAttemptAt();
+        if (nextAttemptAt > 0 && purchaseWorkInFlight < maxPurchaseWorkInFlight) {
+            findUiHandler().postDelayed(drainRunnable, Math.max(0, nextAttemptAt - now));
         }
-
-        return new ProductInfo(skuProductType, productDetails);
     }
 
-    private boolean isProductIdConsumable(String productId) {
-        if (consumableIds == null) {
-            return false;
+    private void runPurchaseWork(@NonNull PurchaseWorkQueue.Work work) {
+        BillingClient client = billingClient;
+        ConnectionHealthMonitor.Call call = healthMonitor.start(() -> onPurchaseWorkTimedOut(client, work));
+        String purchaseToken = work.purchase.getPurchaseToken();
+        if (work.operation == PurchaseWorkQueue.Operation.CONSUME) {
+            ConsumeParams consumeParams = ConsumeParams.newBuilder().setPurchaseToken(purchaseToken).build();
+            client.consumeAsync(consumeParams, (billingResult, token) -> onPurchaseWorkFinished(client, work, call, billingResult));
+        } else {
+            AcknowledgePurchaseParams acknowledgePurchaseParams = AcknowledgePurchaseParams.newBuilder()
+                    .setPurchaseToken(purchaseToken).build();
+            client.acknowledgePurchase(acknowledgePurchaseParams, billingResult -> onPurchaseWorkFinished(client, work, call, billingResult));
         }
+    }
 
-        return consumableIds.contains(productId);
+    /**
+     * Reports an operation dropped because its purchase is past the 3 days window, it is removed so it is reported once
+     */
+    private void onPurchaseWorkExpired(@NonNull PurchaseWorkQueue.Work work) {
+        boolean isConsume = work.operation == PurchaseWorkQueue.Operation.CONSUME;
+        Log("Purchase work: " + work.operation + " dropped after " + work.getAttempts() + " attempts, the purchase is older than 3 days");
+        BillingResponse response = new BillingResponse(isConsume ? ErrorType.CONSUME_ERROR : ErrorType.ACKNOWLEDGE_ERROR,
+                "The purchase " + work.purchase.getOrderId() + " was not " + (isConsume ? "consumed" : "acknowledged")
+                        + " within 3 days, Play refunds it", defaultResponseCode);
+        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
     }
 
     /**
-     * Returns purchases details for currently owned items without a network request
+     * Gives the slot of an operation that didn't answer back, the operation is retried later
      */
-    private void fetchPurchasedProducts() {
-        if (billingClient.isReady()) {
-            getCompositeDisposable().add(Helper.queryPurchases(billingClient, purchases -> {
-                if (purchases.isEmpty()) {
-                    Log("Query Purchases: the list is empty");
+    private void onPurchaseWorkTimedOut(@NonNull BillingClient client, @NonNull PurchaseWorkQueue.Work work) {
+        if (isReleased || client != billingClient) {
+            return;
+        }
+        purchaseWorkInFlight--;
+        long delay = purchaseWorkQueue.retry(work, SERVICE_TIMEOUT);
+        Log("Purchase work: " + work.operation + " didn't answer, retrying in " + delay + " ms");
+        drainPurchaseWork();
+    }
+
+    private void onPurchaseWorkFinished(@NonNull BillingClient client, @NonNull PurchaseWorkQueue.Work work,
+                                        @NonNull ConnectionHealthMonitor.Call call, @NonNull BillingResult billingResult) {
+        if (isReleased) {
+            return;
+        }
+        boolean inTime = call.finish();
+        if (!inTime && billingResult.getResponseCode() != OK) {
+            //already rescheduled when it timed out
+            return;
+        }
+        if (client == billingClient && inTime) {
+            //a closed client had its slots given back already
+            purchaseWorkInFlight--;
+        }
+        boolean isConsume = work.operation == PurchaseWorkQueue.Operation.CONSUME;
+        String purchaseToken = work.purchase.getPurchaseToken();
+        List<PurchaseInfo> purchaseInfoList = generatePurchaseInfo(Collections.singletonList(work.purchase));
+        if (billingResult.getResponseCode() == OK) {
+            circuitBreaker.onSuccess();
+            purchaseWorkQueue.remove(work);
+            if (isConsume) {
+                purchaseStore.remove(purchaseToken);
+                entitlementStore.remove(purchaseToken);
+                streams.onEntitlementsChanged();
+            }
+            for (PurchaseInfo purchaseInfo : purchaseInfoList) {
+                if (isConsume) {
+                    findUiHandler().post(() -> billingEventListener.onPurchaseConsumed(purchaseInfo));
                 } else {
-                    Log("Query Purchases: data found and progress");
+                    findUiHandler().post(() -> billingEventListener.onPurchaseAcknowledged(purchaseInfo));
                 }
-                processPurchases(purchases, true);
-            }));
+            }
         } else {
-            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.FETCH_PURCHASED_PRODUCTS_ERROR,
-                    "Billing client is not ready yet", defaultResponseCode)));
+            circuitBreaker.onFailure(billingResult.getResponseCode());
+            if (ErrorPolicy.isRetryable(billingResult.getResponseCode())) {
+                long delay = purchaseWorkQueue.retry(work, billingResult.getResponseCode());
+                Log("Purchase work: " + work.operation + " failed " + work.getAttempts() + " times, retrying in " + delay + " ms: "
+                        + billingResult.getDebugMessage());
+            } else {
+                Log("Purchase work: " + work.operation + " dropped: " + billingResult.getDebugMessage());
+                purchaseWorkQueue.remove(work);
+            }
+            ErrorType errorType = isConsume ? ErrorType.CONSUME_ERROR : ErrorType.ACKNOWLEDGE_ERROR;
+            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(errorType, billingResult)));
         }
+        drainPurchaseWork();
     }
 
     /**
-     * Before using subscriptions, device-support must be checked
-     * Not all devices support subscriptions
+     * Gives the slots of the operations in flight back, their client is being closed
      */
-    public SupportState isSubscriptionSupported() {
-        return Helper.isSubscriptionSupported(billingClient);
+    private void resetPurchaseWork() {
+        findUiHandler().removeCallbacks(drainRunnable);
+        purchaseWorkInFlight = 0;
+        purchaseWorkQueue.resetInFlight();
     }
 
     /**
-     * Checks purchases signature for more security
+     * Returns a PurchaseInfo for each product of the purchases that is known by the catalog
      */
-    private void processPurchases(@NonNull List<Purchase> allPurchases, boolean purchasedProductsFetched) {
-        List<PurchaseInfo> signatureValidPurchases = new ArrayList<>();
-
-        //create a list with signature valid purchases
-        List<Purchase> validPurchases = allPurchases.stream().filter(this::isPurchaseSignatureValid).collect(Collectors.toList());
-        for (Purchase purchase : validPurchases) {
+    @NonNull
+    private List<PurchaseInfo> generatePurchaseInfo(@NonNull List<Purchase> purchases) {
+        List<PurchaseInfo> purchaseInfoList = new ArrayList<>();
+        ProductCatalog catalog = this.catalog;
+        for (Purchase purchase : purchases) {
 
             //query all products as a list
             List<String> purchasesProducts = purchase.getProducts();
 
             //loop through all products and progress for each product individually
             for (int i = 0; i < purchasesProducts.size(); i++) {
-                String purchaseProduct = purchasesProducts.get(i);
-
-                Optional<ProductInfo> productInfo = fetchedProductInfoList.stream().filter(it -> it.getProduct().equals(purchaseProduct)).findFirst();
-                if (productInfo.isPresent()) {
-                    ProductDetails productDetails = productInfo.get().getProductDetails();
-
-                    PurchaseInfo purchaseInfo = new PurchaseInfo(generateProductInfo(productDetails), purchase);
-                    signatureValidPurchases.add(purchaseInfo);
-
-                }
-            }
-        }
-
-        if (purchasedProductsFetched) {
-            fetchedPurchasedProducts = true;
-            findUiHandler().post(() -> billingEventListener.onPurchasedProductsFetched(signatureValidPurchases));
-        } else {
-            findUiHandler().post(() -> billingEventListener.onProductsPurchased(signatureValidPurchases));
-        }
-
-        purchasedProductsList.addAll(signatureValidPurchases);
-
-        for (PurchaseInfo purchaseInfo : signatureValidPurchases) {
-            if (shouldAutoConsume) {
-                consumePurchase(purchaseInfo);
-            }
-
-            if (shouldAutoAcknowledge) {
-                boolean isProductConsumable = purchaseInfo.getSkuProductType() == SkuProductType.CONSUMABLE;
-                if (!isProductConsumable) {
-                    acknowledgePurchase(purchaseInfo);
+                ProductInfo productInfo = catalog.get(purchasesProducts.get(i));
+                if (productInfo != null) {
+                    purchaseInfoList.add(new PurchaseInfo(productInfo, purchase));
                 }
             }
         }
+        return purchaseInfoList;
     }
 
     /**
@@ -497,30 +1806,51 @@ public class BillingConnector {
      * They have to be consumed within 3 days otherwise Google will refund the products
      */
     public void consumePurchase(@NonNull PurchaseInfo purchaseInfo) {
-        if (checkProductBeforeInteraction(purchaseInfo.getProduct())) {
+        consumePurchase(purchaseInfo, null);
+    }
+
+    private void consumePurchase(@NonNull PurchaseInfo purchaseInfo, @Nullable CompletableFuture<PurchaseInfo> result) {
+        if (deferUntilReady(purchaseInfo.getProduct(), () -> consumePurchase(purchaseInfo, result), result)) {
+            return;
+        }
+        if (checkProductBeforeInteraction(purchaseInfo.getProduct(), result)) {
             if (purchaseInfo.getSkuProductType() == SkuProductType.CONSUMABLE) {
                 if (purchaseInfo.getPurchase().getPurchaseState() == Purchase.PurchaseState.PURCHASED) {
+                    if (!allowBillingCall(result)) {
+                        return;
+                    }
                     ConsumeParams consumeParams = ConsumeParams.newBuilder()
                             .setPurchaseToken(purchaseInfo.getPurchase().getPurchaseToken()).build();
 
                     billingClient.consumeAsync(consumeParams, (billingResult, purchaseToken) -> {
+                        circuitBreaker.onResult(billingResult.getResponseCode());
                         if (billingResult.getResponseCode() == OK) {
-                            purchasedProductsList.remove(purchaseInfo);
+                            purchaseStore.remove(purchaseToken);
+                            entitlementStore.remove(purchaseToken);
+                            streams.onEntitlementsChanged();
                             findUiHandler().post(() -> billingEventListener.onPurchaseConsumed(purchaseInfo));
+                            complete(result, purchaseInfo);
                         } else {
                             Log("Handling consumables: error during consumption attempt: " + billingResult.getDebugMessage());
 
-                            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
-                                    new BillingResponse(ErrorType.CONSUME_ERROR, billingResult)));
+                            BillingResponse response = new BillingResponse(ErrorType.CONSUME_ERROR, billingResult);
+                            findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+                            fail(result, response);
                         }
                     });
                 } else if (purchaseInfo.getPurchase().getPurchaseState() == Purchase.PurchaseState.PENDING) {
                     Log("Handling consumables: purchase can not be consumed because the state is PENDING. " +
                             "A purchase can be consumed only when the state is PURCHASED");
 
-                    findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.CONSUME_WARNING,
-                            "Warning: purchase can not be consumed because the state is PENDING. Please consume the purchase later", defaultResponseCode)));
+                    BillingResponse response = new BillingResponse(ErrorType.CONSUME_WARNING,
+                            "Warning: purchase can not be consumed because the state is PENDING. Please consume the purchase later", defaultResponseCode);
+                    findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+                    fail(result, response);
+                } else {
+                    fail(result, new BillingResponse(ErrorType.CONSUME_ERROR, "The purchase state is unspecified", defaultResponseCode));
                 }
+            } else {
+                fail(result, new BillingResponse(ErrorType.CONSUME_ERROR, "Only consumable products can be consumed", defaultResponseCode));
             }
         }
     }
@@ -531,38 +1861,159 @@ public class BillingConnector {
      * This will avoid refunding for these products to users by Google
      */
     public void acknowledgePurchase(@NonNull PurchaseInfo purchaseInfo) {
-        if (checkProductBeforeInteraction(purchaseInfo.getProduct())) {
+        acknowledgePurchase(purchaseInfo, null);
+    }
+
+    private void acknowledgePurchase(@NonNull PurchaseInfo purchaseInfo, @Nullable CompletableFuture<PurchaseInfo> result) {
+        if (deferUntilReady(purchaseInfo.getProduct(), () -> acknowledgePurchase(purchaseInfo, result), result)) {
+            return;
+        }
+        if (checkProductBeforeInteraction(purchaseInfo.getProduct(), result)) {
             switch (purchaseInfo.getSkuProductType()) {
                 case NON_CONSUMABLE:
                 case SUBSCRIPTION:
                     if (purchaseInfo.getPurchase().getPurchaseState() == Purchase.PurchaseState.PURCHASED) {
                         if (!purchaseInfo.getPurchase().isAcknowledged()) {
+                            if (!allowBillingCall(result)) {
+                                return;
+                            }
                             AcknowledgePurchaseParams acknowledgePurchaseParams = AcknowledgePurchaseParams.newBuilder()
                                     .setPurchaseToken(purchaseInfo.getPurchase().getPurchaseToken()).build();
 
                             billingClient.acknowledgePurchase(acknowledgePurchaseParams, billingResult -> {
+                                circuitBreaker.onResult(billingResult.getResponseCode());
                                 if (billingResult.getResponseCode() == OK) {
                                     findUiHandler().post(() -> billingEventListener.onPurchaseAcknowledged(purchaseInfo));
+                                    complete(result, purchaseInfo);
                                 } else {
                                     Log("Handling acknowledges: error during acknowledgment attempt: " + billingResult.getDebugMessage());
 
-                                    findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this,
-                                            new BillingResponse(ErrorType.ACKNOWLEDGE_ERROR, billingResult)));
+                                    BillingResponse response = new BillingResponse(ErrorType.ACKNOWLEDGE_ERROR, billingResult);
+                                    findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+                                    fail(result, response);
                                 }
                             });
+                        } else {
+                            complete(result, purchaseInfo);
                         }
                     } else if (purchaseInfo.getPurchase().getPurchaseState() == Purchase.PurchaseState.PENDING) {
                         Log("Handling acknowledges: purchase can not be acknowledged because the state is PENDING. " +
                                 "A purchase can be acknowledged only when the state is PURCHASED");
 
-                        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, new BillingResponse(ErrorType.ACKNOWLEDGE_WARNING,
-                                "Warning: purchase can not be acknowledged because the state is PENDING. Please acknowledge the purchase later", defaultResponseCode)));
+                        BillingResponse response = new BillingResponse(ErrorType.ACKNOWLEDGE_WARNING,
+                                "Warning: purchase can not be acknowledged because the state is PENDING. Please acknowledge the purchase later", defaultResponseCode);
+                        findUiHandler().post(() -> billingEventListener.onBillingError(BillingConnector.this, response));
+                        fail(result, response);
+                    } else {
+                        fail(result, new BillingResponse(ErrorType.ACKNOWLEDGE_ERROR, "The purchase state is unspecified", defaultResponseCode));
                     }
                     break;
+                default:
+                    fail(result, new BillingResponse(ErrorType.ACKNOWLEDGE_ERROR, "Consumable products are consumed, not acknowledged", defaultResponseCode));
+                    break;
             }
         }
     }
 
+    /**
+     * Connects if needed and completes once the client is ready, i.e. connected with products fetched
+     * <p>
+     * Can be called from any thread. A parked connector completes once the app is back in the foreground.
+     * Fails with a {@link BillingException} if the setup or the product query fails, the connector keeps retrying
+     */
+    @NonNull
+    public final CompletableFuture<BillingConnector> connectAsync() {
+        if (isReleased) {
+            CompletableFuture<BillingConnector> released = new CompletableFuture<>();
+            released.completeExceptionally(new CancellationException("BillingConnector is released"));
+            return released;
+        }
+        CompletableFuture<Void> ready = waiters.when(FutureWaiters.Topic.CONNECTION, this::isReadyForInteraction);
+        if (!ready.isDone()) {
+            findUiHandler().post(() -> {
+                if (isConnected || isConnecting || isParked) {
+                    return;
+                }
+                try {
+                    connect();
+                } catch (IllegalArgumentException e) {
+                    ready.completeExceptionally(e);
+                }
+            });
+        }
+        return ready.thenApply(v -> this);
+    }
+
+    /**
+     * Completes with the product once it is fetched, or fails with PRODUCT_NOT_EXIST if Play doesn't know it
+     * and with the reported error if the query fails
+     * <p>
+     * Products loaded on demand must be requested with {@link #ensureProducts(SkuProductType, List)} first
+     */
+    @NonNull
+    public final CompletableFuture<ProductInfo> getProductAsync(@NonNull String productId) {
+        return connectAsync()
+                .thenCompose(connector -> waiters.when(FutureWaiters.Topic.PRODUCTS, () -> catalog.contains(productId) || fetchedProducts))
+                .thenApply(v -> {
+                    ProductInfo productInfo = getProduct(productId);
+                    if (productInfo == null) {
+                        throw new BillingException(new BillingResponse(ErrorType.PRODUCT_NOT_EXIST,
+                                "The product id: " + productId + " doesn't seem to exist on Play Console", defaultResponseCode));
+                    }
+                    return productInfo;
+                });
+    }
+
+    /**
+     * Queries the owned products again and completes with them, a query done less than 2 seconds ago is reused
+     * <p>
+     * Fails with a {@link BillingException} holding the reported error if the query fails
+     */
+    @NonNull
+    public final CompletableFuture<List<PurchaseInfo>> queryPurchasesAsync() {
+        long requestedAt = SystemClock.elapsedRealtime();
+        return connectAsync()
+                .thenCompose(connector -> {
+                    findUiHandler().post(this::fetchPurchasedProducts);
+                    return waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetchedAt > 0 && purchasesFetchedAt >= requestedAt - REFRESH_DEBOUNCE_MILLISECONDS);
+                })
+                .thenApply(v -> purchaseStore.getAll());
+    }
+
+    /**
+     * Acknowledges the purchase, fails with a {@link BillingException} holding the reported error
+     * <p>
+     * An already acknowledged purchase completes at once
+     */
+    @NonNull
+    public final CompletableFuture<PurchaseInfo> acknowledgePurchaseAsync(@NonNull PurchaseInfo purchaseInfo) {
+        CompletableFuture<PurchaseInfo> result = new CompletableFuture<>();
+        acknowledgePurchase(purchaseInfo, result);
+        return result;
+    }
+
+    /**
+     * Consumes the purchase, fails with a {@link BillingException} holding the reported error
+     */
+    @NonNull
+    public final CompletableFuture<PurchaseInfo> consumePurchaseAsync(@NonNull PurchaseInfo purchaseInfo) {
+        CompletableFuture<PurchaseInfo> result = new CompletableFuture<>();
+        consumePurchase(purchaseInfo, result);
+        return result;
+    }
+
+    private static <T> void complete(@Nullable CompletableFuture<T> result, T value) {
+        if (result != null) {
+            result.complete(value);
+        }
+    }
+
+    private static void fail(@Nullable CompletableFuture<?> result, @NonNull BillingResponse response) {
+        if (result != null) {
+            result.completeExceptionally(new BillingException(response));
+        }
+    }
+
     /**
      * Called to purchase a non-consumable/consumable product
      */
@@ -576,10 +2027,22 @@ public class BillingConnector {
      * The offer index represents the different offers in the subscription.
      */
     private void purchase(Activity activity, String productId, int selectedOfferIndex) {
+        //a held purchase must not keep a closed screen alive
+        WeakReference<Activity> activityReference = new WeakReference<>(activity);
+        if (deferUntilReady(productId, () -> {
+            Activity heldActivity = activityReference.get();
+            if (heldActivity == null || heldActivity.isFinishing()) {
+                Log("Billing client can not launch billing flow because the activity is gone");
+                return;
+            }
+            purchase(heldActivity, productId, selectedOfferIndex);
+        }, null)) {
+            return;
+        }
         if (checkProductBeforeInteraction(productId)) {
-            Optional<ProductInfo> productInfo = fetchedProductInfoList.stream().filter(it -> it.getProduct().equals(productId)).findFirst();
-            if (productInfo.isPresent()) {
-                ProductDetails productDetails = productInfo.get().getProductDetails();
+            ProductInfo productInfo = getProduct(productId);
+            if (productInfo != null) {
+                ProductDetails productDetails = productInfo.getProductDetails();
                 List<BillingFlowParams.ProductDetailsParams> productDetailsParamsList;
 
                 if (productDetails.getProductType().equals(SUBS) && productDetails.getSubscriptionOfferDetails() != null) {
@@ -603,6 +2066,10 @@ public class BillingConnector {
                         .setProductDetailsParamsList(productDetailsParamsList)
                         .build();
 
+                //the purchases listener reports the answer to the circuit breaker
+                if (!allowBillingCall(null)) {
+                    return;
+                }
                 billingClient.launchBillingFlow(activity, billingFlowParams);
             } else {
                 Log("Billing client can not launch billing flow because product details are missing");
@@ -659,19 +2126,101 @@ public class BillingConnector {
         return checkPurchased(productInfo.getProduct());
     }
 
+    /**
+     * Checks purchase state synchronously
+     * <p>
+     * Until Play answers, the result comes from the persisted entitlement snapshot (CACHED_YES / CACHED_NO)
+     */
+    public final PurchasedResult isPurchased(@NonNull String productId) {
+        return checkPurchased(productId);
+    }
+
+    /**
+     * Returns a stream of the connection state, new subscribers receive the latest state first
+     * <p>
+     * Values are delivered on the main thread, the stream completes when the connector is released
+     */
+    @NonNull
+    public final Observable<ConnectionState> observeConnectionState() {
+        return streams.connectionStates();
+    }
+
+    /**
+     * Returns a stream of the fetched products (or the cached ones until Play answers), starting with the current ones
+     * <p>
+     * Changes are delivered on the main thread, no snapshot is built while nobody is subscribed
+     */
+    @NonNull
+    public final Observable<List<ProductInfo>> observeProducts() {
+        return streams.catalogSnapshots(this::getFetchedProducts);
+    }
+
+    /**
+     * Returns a stream of the owned products, starting with the current snapshot
+     * <p>
+     * Changes are delivered on the main thread, no snapshot is built while nobody is subscribed
+     */
+    @NonNull
+    public final Observable<EntitlementSnapshot> observeEntitlements() {
+        return streams.entitlementSnapshots(entitlementStore::snapshot);
+    }
+
+    /**
+     * Returns a stream of new purchases, the same lists as onProductsPurchased
+     * <p>
+     * Updates are buffered for slow subscribers and dropped while nobody is subscribed
+     */
+    @NonNull
+    public final Flowable<List<PurchaseInfo>> observePurchaseUpdates() {
+        return streams.purchaseUpdates();
+    }
+
+    /**
+     * Returns the owned products known so far, restored from disk until Play answers
+     */
+    @NonNull
+    public final EntitlementSnapshot getEntitlementSnapshot() {
+        return entitlementStore.snapshot();
+    }
+
     private PurchasedResult checkPurchased(String productId) {
-        if (!isReady()) {
+        boolean ready = isReady();
+        if (ready && fetchedPurchasedProducts) {
+            return purchaseStore.isPurchased(productId) ? PurchasedResult.YES : PurchasedResult.NO;
+        }
+
+        EntitlementSnapshot snapshot = entitlementStore.snapshot();
+        if (snapshot.isAvailable()) {
+            return snapshot.isPurchased(productId) ? PurchasedResult.CACHED_YES : PurchasedResult.CACHED_NO;
+        } else if (!ready) {
             return PurchasedResult.CLIENT_NOT_READY;
-        } else if (!fetchedPurchasedProducts) {
-            return PurchasedResult.PURCHASED_PRODUCTS_NOT_FETCHED_YET;
         } else {
-            for (PurchaseInfo purchaseInfo : purchasedProductsList) {
-                if (purchaseInfo.getProduct().equals(productId)) {
-                    return PurchasedResult.YES;
-                }
+            return PurchasedResult.PURCHASED_PRODUCTS_NOT_FETCHED_YET;
+        }
+    }
+
+    /**
+     * Returns the purchases with a valid signature, in input order
+     * <p>
+     * Large lists are verified in parallel
+     */
+    @NonNull
+    private List<Purchase> filterValidPurchases(@NonNull List<Purchase> purchases) {
+        // ignore if no have key
+        if (base64Keys.isEmpty()) {
+            return new ArrayList<>(purchases);
+        }
+        List<String> signedData = purchases.stream().map(Purchase::getOriginalJson).collect(Collectors.toList());
+        List<String> signatures = purchases.stream().map(Purchase::getSignature).collect(Collectors.toList());
+        boolean[] verdicts = Security.verifyPurchases(base64Keys, signedData, signatures, verificationParallelism);
+
+        List<Purchase> validPurchases = new ArrayList<>();
+        for (int i = 0; i < verdicts.length; i++) {
+            if (verdicts[i]) {
+                validPurchases.add(purchases.get(i));
             }
-            return PurchasedResult.NO;
         }
+        return validPurchases;
     }
 
     /**
@@ -679,10 +2228,10 @@ public class BillingConnector {
      */
     private boolean isPurchaseSignatureValid(Purchase purchase) {
         // ignore if no have key
-        if (base64Key == null || base64Key.isEmpty()) {
+        if (base64Keys.isEmpty()) {
             return true;
         }
-        return Security.verifyPurchase(base64Key, purchase.getOriginalJson(), purchase.getSignature());
+        return Security.verifyPurchase(base64Keys, purchase.getOriginalJson(), purchase.getSignature());
     }
 
     /**
@@ -691,12 +2240,16 @@ public class BillingConnector {
      * BillingEventListener runs on it
      */
     private Handler findUiHandler() {
-        if (handler == null) {
-            handler = new Handler(Looper.getMainLooper());
-        }
         return handler;
     }
 
+    private static boolean containsAll(List<String> current, List<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return true;
+        }
+        return current != null && current.containsAll(ids);
+    }
+
     private CompositeDisposable getCompositeDisposable() {
         if (disposable == null || disposable.isDisposed()) {
             disposable = new CompositeDisposable();
@@ -719,14 +2272,21 @@ public class BillingConnector {
      * To avoid leaks this method should be called when BillingConnector is no longer needed
      */
     public void release() {
+        isReleased = true;
+        if (networkMonitor != null) {
+            networkMonitor.stop();
+        }
+        isWaitingForForeground = false;
+        unwatchForeground();
         if (disposable != null) {
             disposable.dispose();
             disposable = null;
         }
-        if (handler != null) {
-            handler.removeCallbacksAndMessages(null);
-            handler = null;
-        }
+        handler.removeCallbacksAndMessages(null);
+        healthMonitor.reset();
+        deferredOperations.expireAll();
+        streams.complete();
+        waiters.failAll(new CancellationException("BillingConnector is released"));
         if (billingClient != null && billingClient.isReady()) {
             Log("BillingConnector instance release: ending connection...");
             billingClient.endConnection();
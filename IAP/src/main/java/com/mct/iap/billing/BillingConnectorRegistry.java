@@ -0,0 +1,419 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ConnectionState;
+import com.mct.iap.billing.models.ProductInfo;
+import com.mct.iap.billing.models.PurchaseInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Process-wide registry of shared {@link BillingConnector} instances.
+ * <p>
+ * Instead of creating a new connector (and so a new BillingClient) for every screen, callers
+ * acquire a {@link Lease} on the connector registered for their public key. The connector queries
+ * the product ids of all current leaseholders and the connection stays alive until the last
+ * lease is released.
+ * <p>
+ * The options of a shared connector are set by the first leaseholder that configures it, later
+ * leaseholders may only apply the same options. The reconnect policy is taken from the first
+ * leaseholder that sets one, later policies are ignored.
+ * <p>
+ * Example Usage:
+ * <code>
+ * <pre>
+ * BillingConnectorRegistry.Lease lease = BillingConnectorRegistry.acquire(context, base64Key,
+ *         consumableIds, nonConsumableIds, subscriptionIds, billingEventListener);
+ * lease.getConnector().purchase(activity, productId);
+ * // when the screen goes away
+ * lease.release();
+ * </pre>
+ * </code>
+ */
+public final class BillingConnectorRegistry {
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Acquires a lease on the shared connector of the given key, creating and connecting it when needed
+     *
+     * @param context          - any context, only the application context is retained
+     * @param base64Key        - is the public developer key from Play Console (optional)
+     * @param consumableIds    - consumable products ids to merge into the connector
+     * @param nonConsumableIds - non-consumable products ids to merge into the connector
+     * @param subscriptionIds  - subscription products ids to merge into the connector
+     * @param listener         - receives the connector events while the lease is held
+     */
+    @NonNull
+    public static Lease acquire(@NonNull Context context, String base64Key,
+                                List<String> consumableIds,
+                                List<String> nonConsumableIds,
+                                List<String> subscriptionIds,
+                                BillingEventListener listener) {
+        return acquire(context, base64Key, consumableIds, nonConsumableIds, subscriptionIds, listener, null);
+    }
+
+    /**
+     * Acquires a lease on the shared connector of the given key, creating and connecting it when needed
+     *
+     * @param context          - any context, only the application context is retained
+     * @param base64Key        - is the public developer key from Play Console (optional)
+     * @param consumableIds    - consumable products ids to merge into the connector
+     * @param nonConsumableIds - non-consumable products ids to merge into the connector
+     * @param subscriptionIds  - subscription products ids to merge into the connector
+     * @param listener         - receives the connector events while the lease is held
+     * @param configurator     - applies options (auto acknowledge, cache...) before the connector connects
+     * @throws IllegalArgumentException if a product id is declared with another type by this or another leaseholder
+     * @throws IllegalStateException    if the configurator changes the options set by another leaseholder
+     */
+    @NonNull
+    public static synchronized Lease acquire(@NonNull Context context, String base64Key,
+                                             List<String> consumableIds,
+                                             List<String> nonConsumableIds,
+                                             List<String> subscriptionIds,
+                                             BillingEventListener listener,
+                                             Consumer<BillingConnector> configurator) {
+        String key = base64Key == null ? "" : base64Key;
+        Entry entry = entries.get(key);
+        boolean created = entry == null;
+        if (created) {
+            entry = new Entry(key, new BillingConnector(context.getApplicationContext(), base64Key));
+        }
+        Lease lease = new Lease(entry, listener, consumableIds, nonConsumableIds, subscriptionIds);
+
+        //nothing is shared before the lease is known to be valid
+        try {
+            List<Lease> leases = new ArrayList<>(entry.leases);
+            leases.add(lease);
+            checkProductIds(leases);
+            entry.configure(configurator);
+        } catch (RuntimeException e) {
+            if (created) {
+                entry.connector.release();
+            }
+            throw e;
+        }
+        if (created) {
+            entries.put(key, entry);
+        }
+        entry.leases.add(lease);
+        entry.dispatcher.add(listener);
+
+        try {
+            boolean productsChanged = entry.updateProductIds();
+            if (created || productsChanged) {
+                entry.connector.connect();
+            }
+        } catch (RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+        if (!created) {
+            entry.dispatcher.replay(entry.connector, listener);
+        }
+        return lease;
+    }
+
+    /**
+     * Returns the number of leases currently held on the connector of the given key
+     */
+    public static synchronized int getLeaseCount(String base64Key) {
+        Entry entry = entries.get(base64Key == null ? "" : base64Key);
+        return entry == null ? 0 : entry.leases.size();
+    }
+
+    private static synchronized void release(@NonNull Lease lease) {
+        Entry entry = lease.entry;
+        if (!entry.leases.remove(lease)) {
+            return;
+        }
+        entry.dispatcher.remove(lease.listener);
+        if (!entry.leases.isEmpty()) {
+            //the ids of the released lease are not queried anymore
+            entry.updateProductIds();
+            return;
+        }
+        if (entries.get(entry.key) == entry) {
+            entries.remove(entry.key);
+        }
+        entry.connector.release();
+    }
+
+    /**
+     * Checks that no product id is declared with two different types across the leases
+     */
+    private static void checkProductIds(@NonNull List<Lease> leases) {
+        Map<String, String> types = new HashMap<>();
+        for (Lease lease : leases) {
+            checkProductIds(types, lease.consumableIds, "consumable");
+            checkProductIds(types, lease.nonConsumableIds, "non-consumable");
+            checkProductIds(types, lease.subscriptionIds, "subscription");
+        }
+    }
+
+    private static void checkProductIds(@NonNull Map<String, String> types, @NonNull List<String> ids, String type) {
+        for (String id : ids) {
+            String previous = types.put(id, type);
+            if (previous != null && !previous.equals(type)) {
+                throw new IllegalArgumentException("The product id: " + id + " is declared as " + previous
+                        + " and as " + type + " on the shared connector");
+            }
+        }
+    }
+
+    @NonNull
+    private static List<String> copy(List<String> ids) {
+        return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+    }
+
+    private BillingConnectorRegistry() {
+        //no instance
+    }
+
+    /**
+     * A reference on a shared connector, has to be released when it is no longer needed
+     */
+    public static final class Lease {
+
+        private final Entry entry;
+        private final BillingEventListener listener;
+        private final List<String> consumableIds;
+        private final List<String> nonConsumableIds;
+        private final List<String> subscriptionIds;
+        private boolean released;
+
+        private Lease(Entry entry, BillingEventListener listener,
+                      List<String> consumableIds, List<String> nonConsumableIds, List<String> subscriptionIds) {
+            this.entry = entry;
+            this.listener = listener;
+            this.consumableIds = copy(consumableIds);
+            this.nonConsumableIds = copy(nonConsumableIds);
+            this.subscriptionIds = copy(subscriptionIds);
+        }
+
+        /**
+         * Returns the shared connector of this lease
+         */
+        @NonNull
+        public BillingConnector getConnector() {
+            return entry.connector;
+        }
+
+        /**
+         * Returns true if the lease has been released
+         */
+        public boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * Releases the lease, the connector is released together with the last lease
+         */
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            BillingConnectorRegistry.release(this);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String key;
+        private final BillingConnector connector;
+        private final Dispatcher dispatcher = new Dispatcher();
+        private final List<Lease> leases = new ArrayList<>();
+        private boolean configured;
+        private boolean reconnectPolicyConfigured;
+
+        private Entry(String key, BillingConnector connector) {
+            this.key = key;
+            this.connector = connector;
+            this.connector.setBillingEventListener(dispatcher);
+        }
+
+        /**
+         * Applies the configurator, it may set the options of a connector no leaseholder configured yet
+         * but must not change the options set by another one
+         * <p>
+         * The first reconnect policy and product cache set are kept, a later leaseholder building its own
+         * instances doesn't replace them
+         */
+        private void configure(Consumer<BillingConnector> configurator) {
+            if (configurator == null) {
+                return;
+            }
+            ConnectorOptions options = connector.getOptions();
+            configurator.accept(connector);
+            ConnectorOptions applied = connector.getOptions();
+            if (!options.equals(applied)) {
+                if (configured) {
+                    connector.restoreOptions(options);
+                    throw new IllegalStateException("The connector of this key is shared and already configured with "
+                            + options + ", use the same options for every leaseholder");
+                }
+                configured = true;
+            }
+            ReconnectPolicy reconnectPolicy = applied.reconnectPolicy;
+            if (reconnectPolicy != options.reconnectPolicy) {
+                if (reconnectPolicyConfigured) {
+                    reconnectPolicy = options.reconnectPolicy;
+                }
+                reconnectPolicyConfigured = true;
+            }
+            ProductDetailsCache productDetailsCache = options.productDetailsCache != null
+                    ? options.productDetailsCache : applied.productDetailsCache;
+            if (reconnectPolicy != applied.reconnectPolicy || productDetailsCache != applied.productDetailsCache) {
+                connector.restoreOptions(applied.withInstances(reconnectPolicy, productDetailsCache));
+            }
+        }
+
+        /**
+         * Sets the ids of all the leases on the connector
+         *
+         * @return true if at least one new product id was added
+         */
+        private boolean updateProductIds() {
+            return connector.replaceProductIds(
+                    union(lease -> lease.consumableIds),
+                    union(lease -> lease.nonConsumableIds),
+                    union(lease -> lease.subscriptionIds));
+        }
+
+        @NonNull
+        private List<String> union(@NonNull Function<Lease, List<String>> ids) {
+            Set<String> union = new LinkedHashSet<>();
+            for (Lease lease : leases) {
+                union.addAll(ids.apply(lease));
+            }
+            return new ArrayList<>(union);
+        }
+    }
+
+    /**
+     * Fans the connector events out to every leaseholder
+     */
+    private static final class Dispatcher implements BillingEventListener {
+
+        private final List<BillingEventListener> listeners = new CopyOnWriteArrayList<>();
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        private void add(BillingEventListener listener) {
+            if (listener != null && !listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+
+        private void remove(BillingEventListener listener) {
+            if (listener != null) {
+                listeners.remove(listener);
+            }
+        }
+
+        /**
+         * Delivers the state already fetched by the connector to a late leaseholder
+         */
+        private void replay(@NonNull BillingConnector connector, BillingEventListener listener) {
+            if (listener == null) {
+                return;
+            }
+            List<ProductInfo> products = connector.getFetchedProducts();
+            List<PurchaseInfo> purchases = connector.getPurchasedProducts();
+            boolean productsCompleted = connector.isProductsFetchCompleted();
+            boolean purchasesFetched = connector.isPurchasedProductsFetched();
+            handler.post(() -> {
+                if (!listeners.contains(listener)) {
+                    return;
+                }
+                if (!products.isEmpty()) {
+                    listener.onProductsFetched(products);
+                }
+                if (productsCompleted) {
+                    listener.onProductsFetchCompleted(products);
+                }
+                if (purchasesFetched) {
+                    listener.onPurchasedProductsFetched(purchases);
+                }
+            });
+        }
+
+        @Override
+        public void onProductsFetched(@NonNull List<ProductInfo> productDetails) {
+            for (BillingEventListener listener : listeners) {
+                listener.onProductsFetched(productDetails);
+            }
+        }
+
+        @Override
+        public void onProductsFetchCompleted(@NonNull List<ProductInfo> productDetails) {
+            for (BillingEventListener listener : listeners) {
+                listener.onProductsFetchCompleted(productDetails);
+            }
+        }
+
+        @Override
+        public void onPurchasedProductsFetched(@NonNull List<PurchaseInfo> purchases) {
+            for (BillingEventListener listener : listeners) {
+                listener.onPurchasedProductsFetched(purchases);
+            }
+        }
+
+        @Override
+        public void onProductsPurchased(@NonNull List<PurchaseInfo> purchases) {
+            for (BillingEventListener listener : listeners) {
+                listener.onProductsPurchased(purchases);
+            }
+        }
+
+        @Override
+        public void onPurchaseAcknowledged(@NonNull PurchaseInfo purchase) {
+            for (BillingEventListener listener : listeners) {
+                listener.onPurchaseAcknowledged(purchase);
+            }
+        }
+
+        @Override
+        public void onPurchaseConsumed(@NonNull PurchaseInfo purchase) {
+            for (BillingEventListener listener : listeners) {
+                listener.onPurchaseConsumed(purchase);
+            }
+        }
+
+        @Override
+        public void onPendingPurchasesCompleted(@NonNull List<PurchaseInfo> purchases) {
+            for (BillingEventListener listener : listeners) {
+                listener.onPendingPurchasesCompleted(purchases);
+            }
+        }
+
+        @Override
+        public void onConnectionStateChanged(@NonNull ConnectionState state) {
+            for (BillingEventListener listener : listeners) {
+                listener.onConnectionStateChanged(state);
+            }
+        }
+
+        @Override
+        public void onBillingError(@NonNull BillingConnector billingConnector, @NonNull BillingResponse response) {
+            for (BillingEventListener listener : listeners) {
+                listener.onBillingError(billingConnector, response);
+            }
+        }
+    }
+}
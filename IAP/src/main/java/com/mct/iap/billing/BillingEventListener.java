@@ -3,6 +3,7 @@ package com.mct.iap.billing;
 import androidx.annotation.NonNull;
 
 import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ConnectionState;
 import com.mct.iap.billing.models.ProductInfo;
 import com.mct.iap.billing.models.PurchaseInfo;
 
@@ -16,6 +17,14 @@ public interface BillingEventListener {
      */
     void onProductsFetched(@NonNull List<ProductInfo> productDetails);
 
+    /**
+     * Callback will be triggered once all product types are queried, after the last onProductsFetched
+     *
+     * @param productDetails - a list with all available products
+     */
+    default void onProductsFetchCompleted(@NonNull List<ProductInfo> productDetails) {
+    }
+
     /**
      * Callback will be triggered when purchased products are queried from Play Console
      *
@@ -30,6 +39,16 @@ public interface BillingEventListener {
      */
     void onProductsPurchased(@NonNull List<PurchaseInfo> purchases);
 
+    /**
+     * Callback will be triggered when the payment of pending purchases completes, e.g. paid in cash at a store
+     * <p>
+     * Called before onProductsPurchased or onPurchasedProductsFetched delivers them too
+     *
+     * @param purchases - a list with purchased products that were pending
+     */
+    default void onPendingPurchasesCompleted(@NonNull List<PurchaseInfo> purchases) {
+    }
+
     /**
      * Callback will be triggered when a purchase is acknowledged
      *
@@ -44,6 +63,14 @@ public interface BillingEventListener {
      */
     void onPurchaseConsumed(@NonNull PurchaseInfo purchase);
 
+    /**
+     * Callback will be triggered when the billing client connects, disconnects or schedules a reconnect attempt
+     *
+     * @param state - provides the connection status and the reconnect policy in use
+     */
+    default void onConnectionStateChanged(@NonNull ConnectionState state) {
+    }
+
     /**
      * Callback will be triggered when error occurs
      *
@@ -0,0 +1,23 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.models.BillingResponse;
+
+/**
+ * Completes the futures returned by {@link BillingConnector} when an operation fails
+ */
+public class BillingException extends RuntimeException {
+
+    private final BillingResponse response;
+
+    public BillingException(@NonNull BillingResponse response) {
+        super(response.toString());
+        this.response = response;
+    }
+
+    @NonNull
+    public BillingResponse getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mct.iap.billing;
+
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Timeout and blocking helpers for the futures returned by {@link BillingConnector}.
+ * <p>
+ * Example Usage, from a worker thread:
+ * <code>
+ * <pre>
+ * EntitlementSnapshot snapshot = BillingFutures.await(connector.connectAsync()
+ *         .thenCompose(c -> c.queryPurchasesAsync())
+ *         .thenApply(purchases -> connector.getEntitlementSnapshot()), 30, TimeUnit.SECONDS);
+ * </pre>
+ * </code>
+ */
+public final class BillingFutures {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "iap-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Returns a future completed like the given one, or with a {@link TimeoutException} once the timeout elapses
+     * <p>
+     * The given future is left untouched, the operation keeps running in background
+     */
+    @NonNull
+    public static <T> CompletableFuture<T> withTimeout(@NonNull CompletableFuture<T> future, long timeout, @NonNull TimeUnit unit) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timer = scheduler.schedule(() ->
+                result.completeExceptionally(new TimeoutException("No result after " + timeout + " " + unit)), timeout, unit);
+        future.whenComplete((value, throwable) -> {
+            timer.cancel(false);
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for the result of the future until the deadline
+     * <p>
+     * Must not be called on the main thread, billing callbacks are delivered on it
+     *
+     * @throws IllegalStateException if called on the main thread
+     * @throws TimeoutException      if the future is not completed before the deadline
+     * @throws ExecutionException    if the future completed with an error, e.g. a {@link BillingException}
+     */
+    public static <T> T await(@NonNull CompletableFuture<T> future, long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Can not wait for a billing result on the main thread");
+        }
+        return future.get(timeout, unit);
+    }
+
+    private BillingFutures() {
+        //no instance
+    }
+}
@@ -0,0 +1,93 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.models.ConnectionState;
+import com.mct.iap.billing.models.PurchaseInfo;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+/**
+ * State streams of a {@link BillingConnector}.
+ * <p>
+ * Snapshot streams only carry change signals, the snapshot itself is built when a subscriber asks for it,
+ * so nothing is computed while no one is subscribed. All methods must be called on the main thread.
+ */
+final class BillingStreams {
+
+    private static final Object CHANGED = new Object();
+
+    private final BehaviorSubject<ConnectionState> connectionStates = BehaviorSubject.create();
+    private final PublishSubject<Object> catalogChanges = PublishSubject.create();
+    private final PublishSubject<Object> entitlementChanges = PublishSubject.create();
+    private final PublishSubject<List<PurchaseInfo>> purchaseUpdates = PublishSubject.create();
+
+    void onConnectionStateChanged(@NonNull ConnectionState state) {
+        connectionStates.onNext(state);
+    }
+
+    void onCatalogChanged() {
+        if (catalogChanges.hasObservers()) {
+            catalogChanges.onNext(CHANGED);
+        }
+    }
+
+    void onEntitlementsChanged() {
+        if (entitlementChanges.hasObservers()) {
+            entitlementChanges.onNext(CHANGED);
+        }
+    }
+
+    void onPurchasesUpdated(@NonNull List<PurchaseInfo> purchases) {
+        if (purchaseUpdates.hasObservers()) {
+            purchaseUpdates.onNext(purchases);
+        }
+    }
+
+    /**
+     * Completes all the streams, e.g. when the connector is released
+     */
+    void complete() {
+        connectionStates.onComplete();
+        catalogChanges.onComplete();
+        entitlementChanges.onComplete();
+        purchaseUpdates.onComplete();
+    }
+
+    @NonNull
+    Observable<ConnectionState> connectionStates() {
+        return connectionStates.hide();
+    }
+
+    @NonNull
+    <T> Observable<T> catalogSnapshots(@NonNull Supplier<T> snapshot) {
+        return snapshots(catalogChanges, snapshot);
+    }
+
+    @NonNull
+    <T> Observable<T> entitlementSnapshots(@NonNull Supplier<T> snapshot) {
+        return snapshots(entitlementChanges, snapshot);
+    }
+
+    @NonNull
+    Flowable<List<PurchaseInfo>> purchaseUpdates() {
+        return purchaseUpdates.toFlowable(BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * Emits the current snapshot on subscribe, then a new one after every change
+     */
+    @NonNull
+    private static <T> Observable<T> snapshots(@NonNull PublishSubject<Object> changes, @NonNull Supplier<T> snapshot) {
+        return Observable.defer(() -> changes.startWithItem(CHANGED))
+                .map(signal -> snapshot.get())
+                .distinctUntilChanged();
+    }
+}
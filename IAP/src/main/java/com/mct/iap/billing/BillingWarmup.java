@@ -0,0 +1,174 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.enums.SkuProductType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Starts the billing connection before any screen needs it.
+ * <p>
+ * A warm-up acquires a {@link BillingConnectorRegistry} lease, so the connection, products and
+ * purchases are fetched in background. A {@code BillingComponent}
+ * or any other leaseholder using the same public key then attaches to the warmed connector and
+ * receives the fetched state at once.
+ * <p>
+ * Example Usage:
+ * <code>
+ * <pre>
+ * public class App extends Application {
+ *     public void onCreate() {
+ *         super.onCreate();
+ *         BillingWarmup.warmUp(this, base64Key, consumableIds, nonConsumableIds, subscriptionIds);
+ *     }
+ * }
+ * </pre>
+ * </code>
+ * <p>
+ * For a cheaper, speculative start, e.g. on touch-down of an "Upgrade" button, use
+ * {@link #hint(Context, String, SkuProductType, String...)}: the connection is released again if
+ * nothing uses it before the idle timeout.
+ */
+public final class BillingWarmup {
+
+    private static final long HINT_IDLE_TIMEOUT_MILLISECONDS = 30_000L;
+
+    private static final Map<String, BillingConnectorRegistry.Lease> leases = new HashMap<>();
+    private static final Map<String, Hint> hints = new HashMap<>();
+    private static Handler handler;
+
+    /**
+     * Connects the shared connector of the given key and fetches its products and purchases in background
+     *
+     * @param context          - any context, only the application context is retained
+     * @param base64Key        - is the public developer key from Play Console (optional), must match the one of the screens
+     * @param consumableIds    - consumable products ids to fetch
+     * @param nonConsumableIds - non-consumable products ids to fetch
+     * @param subscriptionIds  - subscription products ids to fetch
+     */
+    public static void warmUp(@NonNull Context context, String base64Key,
+                              List<String> consumableIds,
+                              List<String> nonConsumableIds,
+                              List<String> subscriptionIds) {
+        warmUp(context, base64Key, consumableIds, nonConsumableIds, subscriptionIds, null);
+    }
+
+    /**
+     * Connects the shared connector of the given key and fetches its products and purchases in background
+     *
+     * @param context          - any context, only the application context is retained
+     * @param base64Key        - is the public developer key from Play Console (optional), must match the one of the screens
+     * @param consumableIds    - consumable products ids to fetch
+     * @param nonConsumableIds - non-consumable products ids to fetch
+     * @param subscriptionIds  - subscription products ids to fetch
+     * @param configurator     - applies options (auto acknowledge, cache...) before the connector connects,
+     *                         screens sharing the connector must apply the same options
+     */
+    public static synchronized void warmUp(@NonNull Context context, String base64Key,
+                                           List<String> consumableIds,
+                                           List<String> nonConsumableIds,
+                                           List<String> subscriptionIds,
+                                           Consumer<BillingConnector> configurator) {
+        String key = base64Key == null ? "" : base64Key;
+        BillingConnectorRegistry.Lease previous = leases.get(key);
+        //the new lease is acquired first so the connector is kept alive
+        leases.put(key, BillingConnectorRegistry.acquire(context, base64Key,
+                consumableIds, nonConsumableIds, subscriptionIds, null, configurator));
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Speculatively connects the shared connector of the given key and loads the given products
+     * <p>
+     * The products are loaded with {@link BillingConnector#ensureProducts(SkuProductType, List)}, so only the
+     * ones that are not fetched yet are queried. If no screen acquires the connector within the idle timeout
+     * (30 seconds after the last hint), the connection is released
+     *
+     * @param context        - any context, only the application context is retained
+     * @param base64Key      - is the public developer key from Play Console (optional), must match the one of the screens
+     * @param skuProductType - is the type of all the given products
+     * @param productIds     - are the products the user is likely to buy
+     */
+    public static synchronized void hint(@NonNull Context context, String base64Key,
+                                         @NonNull SkuProductType skuProductType,
+                                         String... productIds) {
+        String key = base64Key == null ? "" : base64Key;
+        List<String> ids = Arrays.asList(productIds);
+        Hint hint = hints.get(key);
+        if (hint == null) {
+            BillingConnectorRegistry.Lease lease = BillingConnectorRegistry.acquire(context, base64Key,
+                    null, null, null, null, connector -> connector.ensureProducts(skuProductType, ids));
+            hint = new Hint(key, lease);
+            hints.put(key, hint);
+        } else {
+            hint.lease.getConnector().ensureProducts(skuProductType, ids);
+        }
+        findHandler().removeCallbacks(hint);
+        findHandler().postDelayed(hint, HINT_IDLE_TIMEOUT_MILLISECONDS);
+    }
+
+    /**
+     * Returns true if a warm-up holds the connector of the given key
+     */
+    public static synchronized boolean isWarm(String base64Key) {
+        return leases.containsKey(base64Key == null ? "" : base64Key);
+    }
+
+    /**
+     * Releases the warm-up of the given key, the connector stays connected while screens still use it
+     */
+    public static synchronized void coolDown(String base64Key) {
+        BillingConnectorRegistry.Lease lease = leases.remove(base64Key == null ? "" : base64Key);
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    private static synchronized void expire(@NonNull Hint hint) {
+        if (hints.get(hint.key) == hint) {
+            hints.remove(hint.key);
+        }
+        hint.lease.release();
+    }
+
+    private static Handler findHandler() {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+
+    private BillingWarmup() {
+        //no instance
+    }
+
+    /**
+     * A speculative lease, released once it stays idle for the timeout
+     */
+    private static final class Hint implements Runnable {
+
+        private final String key;
+        private final BillingConnectorRegistry.Lease lease;
+
+        private Hint(String key, BillingConnectorRegistry.Lease lease) {
+            this.key = key;
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            expire(this);
+        }
+    }
+}
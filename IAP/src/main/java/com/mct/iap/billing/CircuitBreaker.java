@@ -0,0 +1,138 @@
+package com.mct.iap.billing;
+
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.BILLING_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.OK;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.USER_CANCELED;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.enums.CircuitState;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling Play while billing is unavailable on the device, e.g. no Play account or an outdated Play Store.
+ * <p>
+ * The circuit opens after 3 BILLING_UNAVAILABLE results in a row, and half-opens once the open time elapsed
+ * to let one call through. A success closes it, a failure opens it again for twice as long, up to 30 minutes.
+ * A trial call that doesn't report back within 30 seconds gives its permit back.
+ */
+final class CircuitBreaker {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLISECONDS = 60_000L;
+    private static final long MAX_OPEN_MILLISECONDS = 30 * 60_000L;
+    private static final long TRIAL_TIMEOUT_MILLISECONDS = 30_000L;
+
+    private final LongSupplier clock;
+
+    private int failures;
+    private int trips;
+    private long openUntil;
+    private boolean open;
+    private long trialUntil;
+
+    CircuitBreaker() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock - returns the current time in milliseconds, e.g. a fake one in tests
+     */
+    CircuitBreaker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Counts the failure if it is a BILLING_UNAVAILABLE one
+     *
+     * @return true if the circuit has just opened
+     */
+    synchronized boolean onFailure(int responseCode) {
+        //any answer ends the trial call
+        trialUntil = 0;
+        if (responseCode != BILLING_UNAVAILABLE) {
+            return false;
+        }
+        if (!open && ++failures < FAILURE_THRESHOLD) {
+            return false;
+        }
+        //a failed trial call reopens the circuit
+        trips++;
+        failures = 0;
+        open = true;
+        int shift = Math.min(trips - 1, 20);
+        openUntil = clock.getAsLong() + Math.min(MAX_OPEN_MILLISECONDS, OPEN_MILLISECONDS << shift);
+        return true;
+    }
+
+    /**
+     * Reports the answer of a call, a cancelled purchase or an owned product proves the service is reachable
+     * and counts as a success, other failures go through {@link #onFailure(int)}
+     *
+     * @return true if the circuit has just opened
+     */
+    synchronized boolean onResult(int responseCode) {
+        switch (responseCode) {
+            case OK:
+            case USER_CANCELED:
+            case ITEM_ALREADY_OWNED:
+                onSuccess();
+                return false;
+            default:
+                return onFailure(responseCode);
+        }
+    }
+
+    /**
+     * @return true if the circuit was open or half-open
+     */
+    synchronized boolean onSuccess() {
+        boolean wasOpen = open;
+        failures = 0;
+        trips = 0;
+        open = false;
+        openUntil = 0;
+        trialUntil = 0;
+        return wasOpen;
+    }
+
+    @NonNull
+    synchronized CircuitState getState() {
+        if (!open) {
+            return CircuitState.CLOSED;
+        }
+        return clock.getAsLong() < openUntil ? CircuitState.OPEN : CircuitState.HALF_OPEN;
+    }
+
+    /**
+     * Returns true if a call may be made, false while the circuit is open
+     * <p>
+     * While half-open only the first caller gets a permit, the call must then report through
+     * {@link #onSuccess()} or {@link #onFailure(int)}
+     */
+    synchronized boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil || now < trialUntil) {
+            return false;
+        }
+        trialUntil = now + TRIAL_TIMEOUT_MILLISECONDS;
+        return true;
+    }
+
+    /**
+     * Returns the time left before a call may be made, 0 if the circuit is closed or a trial call may be made now
+     */
+    synchronized long getRemainingOpenMillis() {
+        if (!open) {
+            return 0;
+        }
+        return Math.max(0, Math.max(openUntil, trialUntil) - clock.getAsLong());
+    }
+}
@@ -0,0 +1,129 @@
+package com.mct.iap.billing;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Watches the calls made on the billing client and tells when its connection is dead.
+ * <p>
+ * The client can report ready while its callbacks never arrive. Every call is given a deadline, and once
+ * 3 calls in a row missed it the listener is called on the main thread. Any answer resets the count,
+ * even a late one or an error, since it proves the service is still there.
+ * <p>
+ * {@link #reset()} starts a new generation once the client is ended, timeouts of the calls made on an
+ * ended client are not counted, so a client is recycled at most once.
+ */
+final class ConnectionHealthMonitor {
+
+    static final long CALL_DEADLINE_MILLISECONDS = 20_000L;
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 3;
+
+    private final Handler handler;
+    private final Runnable deadListener;
+    private final Set<Call> outstandingCalls = new HashSet<>();
+    private int consecutiveTimeouts;
+    private int generation;
+
+    ConnectionHealthMonitor(@NonNull Handler handler, @NonNull Runnable deadListener) {
+        this.handler = handler;
+        this.deadListener = deadListener;
+    }
+
+    /**
+     * Starts watching a call, {@link Call#finish()} must be called from its callback
+     *
+     * @param onTimeout - runs on the main thread if the call misses its deadline (optional)
+     */
+    @NonNull
+    synchronized Call start(@Nullable Runnable onTimeout) {
+        Call call = new Call(onTimeout, generation);
+        outstandingCalls.add(call);
+        handler.postDelayed(call, CALL_DEADLINE_MILLISECONDS);
+        return call;
+    }
+
+    /**
+     * Counts a call that timed out on its own, e.g. a query with its own deadline
+     */
+    synchronized void onTimeout() {
+        if (++consecutiveTimeouts >= MAX_CONSECUTIVE_TIMEOUTS) {
+            consecutiveTimeouts = 0;
+            handler.post(deadListener);
+        }
+    }
+
+    /**
+     * Counts an answer of the service
+     */
+    synchronized void onAnswer() {
+        consecutiveTimeouts = 0;
+    }
+
+    /**
+     * Forgets the outstanding calls and the timeouts, e.g. once their client is closed
+     */
+    synchronized void reset() {
+        for (Call call : outstandingCalls) {
+            handler.removeCallbacks(call);
+        }
+        outstandingCalls.clear();
+        consecutiveTimeouts = 0;
+        generation++;
+        //the dead client is already gone
+        handler.removeCallbacks(deadListener);
+    }
+
+    private synchronized boolean remove(@NonNull Call call) {
+        return outstandingCalls.remove(call);
+    }
+
+    /**
+     * Counts the timeout of a call unless its client was ended meanwhile, e.g. by its own timeout callback
+     */
+    private synchronized void onTimeout(@NonNull Call call) {
+        if (call.generation == generation) {
+            onTimeout();
+        }
+    }
+
+    final class Call implements Runnable {
+
+        private final Runnable onTimeout;
+        private final int generation;
+
+        private Call(Runnable onTimeout, int generation) {
+            this.onTimeout = onTimeout;
+            this.generation = generation;
+        }
+
+        /**
+         * Ends the call once it answered
+         *
+         * @return true if it answered before its deadline
+         */
+        boolean finish() {
+            boolean inTime = remove(this);
+            if (inTime) {
+                handler.removeCallbacks(this);
+            }
+            onAnswer();
+            return inTime;
+        }
+
+        @Override
+        public void run() {
+            if (!remove(this)) {
+                return;
+            }
+            if (onTimeout != null) {
+                onTimeout.run();
+            }
+            onTimeout(this);
+        }
+    }
+}
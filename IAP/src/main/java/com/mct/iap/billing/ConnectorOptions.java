@@ -0,0 +1,117 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import java.util.Objects;
+
+/**
+ * Snapshot of the options set on a {@link BillingConnector}, used by {@link BillingConnectorRegistry}
+ * to tell whether a leaseholder tries to change the options of a shared connector.
+ * <p>
+ * Logging is left out, turning it on for one leaseholder doesn't change the behavior of the others.
+ * The reconnect policy is left out as well since policies have no value equality, the registry keeps
+ * the first one set instead. The product cache is compared by its ttl.
+ */
+final class ConnectorOptions {
+
+    final boolean autoAcknowledge;
+    final boolean autoConsume;
+    final boolean deliverProgressively;
+    final int productQueryChunkSize;
+    final int maxProductQueryChunksInFlight;
+    final int verificationParallelism;
+    final int maxCatalogSize;
+    final int maxPurchaseWorkInFlight;
+    final long parkDelayMillis;
+    final long catalogMaxAgeMillis;
+    final long deferredOperationDeadlineMillis;
+    final ReconnectPolicy reconnectPolicy;
+    final NetworkMonitor networkMonitor;
+    final ProductDetailsCache productDetailsCache;
+
+    ConnectorOptions(boolean autoAcknowledge, boolean autoConsume, boolean deliverProgressively,
+                     int productQueryChunkSize, int maxProductQueryChunksInFlight,
+                     int verificationParallelism, int maxCatalogSize, int maxPurchaseWorkInFlight,
+                     long parkDelayMillis, long catalogMaxAgeMillis, long deferredOperationDeadlineMillis,
+                     ReconnectPolicy reconnectPolicy, NetworkMonitor networkMonitor, ProductDetailsCache productDetailsCache) {
+        this.autoAcknowledge = autoAcknowledge;
+        this.autoConsume = autoConsume;
+        this.deliverProgressively = deliverProgressively;
+        this.productQueryChunkSize = productQueryChunkSize;
+        this.maxProductQueryChunksInFlight = maxProductQueryChunksInFlight;
+        this.verificationParallelism = verificationParallelism;
+        this.maxCatalogSize = maxCatalogSize;
+        this.maxPurchaseWorkInFlight = maxPurchaseWorkInFlight;
+        this.parkDelayMillis = parkDelayMillis;
+        this.catalogMaxAgeMillis = catalogMaxAgeMillis;
+        this.deferredOperationDeadlineMillis = deferredOperationDeadlineMillis;
+        this.reconnectPolicy = reconnectPolicy;
+        this.networkMonitor = networkMonitor;
+        this.productDetailsCache = productDetailsCache;
+    }
+
+    /**
+     * Returns a copy of these options using the given policy and cache instances
+     */
+    @NonNull
+    ConnectorOptions withInstances(ReconnectPolicy reconnectPolicy, ProductDetailsCache productDetailsCache) {
+        return new ConnectorOptions(autoAcknowledge, autoConsume, deliverProgressively,
+                productQueryChunkSize, maxProductQueryChunksInFlight,
+                verificationParallelism, maxCatalogSize, maxPurchaseWorkInFlight,
+                parkDelayMillis, catalogMaxAgeMillis, deferredOperationDeadlineMillis,
+                reconnectPolicy, networkMonitor, productDetailsCache);
+    }
+
+    private long cacheTtlMillis() {
+        return productDetailsCache == null ? -1 : productDetailsCache.getTtlMillis();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConnectorOptions that = (ConnectorOptions) o;
+        return autoAcknowledge == that.autoAcknowledge
+                && autoConsume == that.autoConsume
+                && deliverProgressively == that.deliverProgressively
+                && productQueryChunkSize == that.productQueryChunkSize
+                && maxProductQueryChunksInFlight == that.maxProductQueryChunksInFlight
+                && verificationParallelism == that.verificationParallelism
+                && maxCatalogSize == that.maxCatalogSize
+                && maxPurchaseWorkInFlight == that.maxPurchaseWorkInFlight
+                && parkDelayMillis == that.parkDelayMillis
+                && catalogMaxAgeMillis == that.catalogMaxAgeMillis
+                && deferredOperationDeadlineMillis == that.deferredOperationDeadlineMillis
+                && (networkMonitor != null) == (that.networkMonitor != null)
+                && cacheTtlMillis() == that.cacheTtlMillis();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(autoAcknowledge, autoConsume, deliverProgressively, productQueryChunkSize,
+                maxProductQueryChunksInFlight, verificationParallelism, maxCatalogSize, maxPurchaseWorkInFlight,
+                parkDelayMillis, catalogMaxAgeMillis, deferredOperationDeadlineMillis,
+                networkMonitor != null, cacheTtlMillis());
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ConnectorOptions{" +
+                "autoAcknowledge=" + autoAcknowledge +
+                ", autoConsume=" + autoConsume +
+                ", deliverProgressively=" + deliverProgressively +
+                ", productQueryChunkSize=" + productQueryChunkSize +
+                ", maxProductQueryChunksInFlight=" + maxProductQueryChunksInFlight +
+                ", verificationParallelism=" + verificationParallelism +
+                ", maxCatalogSize=" + maxCatalogSize +
+                ", maxPurchaseWorkInFlight=" + maxPurchaseWorkInFlight +
+                ", parkDelayMillis=" + parkDelayMillis +
+                ", catalogMaxAgeMillis=" + catalogMaxAgeMillis +
+                ", deferredOperationDeadlineMillis=" + deferredOperationDeadlineMillis +
+                ", reconnectPolicy=" + reconnectPolicy +
+                ", reconnectOnNetworkAvailable=" + (networkMonitor != null) +
+                ", productCacheTtlMillis=" + cacheTtlMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package com.mct.iap.billing;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Holds the calls made while the client is not ready and replays them in order once it is.
+ * <p>
+ * A call still waiting at its deadline is dropped and its expiry is run instead. All methods must be called on the main thread.
+ */
+final class DeferredOperationQueue {
+
+    private final Handler handler;
+    private final Deque<Operation> operations = new ArrayDeque<>();
+
+    DeferredOperationQueue(@NonNull Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @param productId      - is the product the operation needs, it is replayed once the product is known
+     * @param replay         - runs the operation again
+     * @param expiry         - reports the operation as failed, called instead of replay after the deadline
+     * @param deadlineMillis - is how long the operation may wait
+     */
+    void add(String productId, @NonNull Runnable replay, @NonNull Runnable expiry, long deadlineMillis) {
+        Operation operation = new Operation(productId, replay, expiry);
+        operations.addLast(operation);
+        handler.postDelayed(operation, deadlineMillis);
+    }
+
+    boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Replays the operations from the oldest one, until one of them can not run yet
+     *
+     * @param canRun - tells if the product of an operation is ready
+     */
+    void replay(@NonNull Predicate<String> canRun) {
+        while (!operations.isEmpty() && canRun.test(operations.peekFirst().productId)) {
+            Operation operation = operations.pollFirst();
+            handler.removeCallbacks(operation);
+            operation.replay.run();
+        }
+    }
+
+    /**
+     * Drops all the operations and runs their expiry, e.g. when the client will not be ready anymore
+     */
+    void expireAll() {
+        List<Operation> expired = new ArrayList<>(operations);
+        operations.clear();
+        for (Operation operation : expired) {
+            handler.removeCallbacks(operation);
+            operation.expiry.run();
+        }
+    }
+
+    private final class Operation implements Runnable {
+
+        private final String productId;
+        private final Runnable replay;
+        private final Runnable expiry;
+
+        private Operation(String productId, Runnable replay, Runnable expiry) {
+            this.productId = productId;
+            this.replay = replay;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public void run() {
+            if (operations.remove(this)) {
+                expiry.run();
+            }
+        }
+    }
+}
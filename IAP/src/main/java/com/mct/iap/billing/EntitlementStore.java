@@ -0,0 +1,136 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.Purchase;
+import com.mct.iap.billing.models.EntitlementSnapshot;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Persists the signature-verified purchases so entitlements are known before Play answers.
+ * <p>
+ * Only the original purchase json and its signature are stored, they are verified again on load.
+ * Purchases are kept whatever their state, pending ones included, so the snapshot agrees with
+ * {@link PurchaseStore} once Play answers.
+ */
+class EntitlementStore {
+
+    private static final String PREFS_NAME = "iap_entitlements";
+
+    private final SharedPreferences preferences;
+    private final String key;
+    private final Consumer<String> logger;
+
+    private final Map<String, Purchase> purchases = new LinkedHashMap<>();
+    private long verifiedAt;
+    private boolean cached = true;
+
+    EntitlementStore(@NonNull Context context, String base64Key, @NonNull Consumer<String> logger) {
+        this.preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.key = "snapshot_" + (base64Key == null ? 0 : base64Key.hashCode());
+        this.logger = logger;
+    }
+
+    /**
+     * Restores the persisted purchases accepted by the verifier
+     */
+    synchronized void load(@NonNull Predicate<Purchase> verifier) {
+        purchases.clear();
+        verifiedAt = 0;
+        String json = preferences.getString(key, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONObject root = new JSONObject(json);
+            JSONArray items = root.getJSONArray("purchases");
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                Purchase purchase = new Purchase(item.getString("json"), item.optString("signature", ""));
+                if (verifier.test(purchase)) {
+                    purchases.put(purchase.getPurchaseToken(), purchase);
+                }
+            }
+            verifiedAt = root.getLong("verifiedAt");
+        } catch (JSONException e) {
+            logger.accept("Entitlements: can not restore the snapshot: " + e.getMessage());
+            purchases.clear();
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the purchases returned by Play
+     */
+    synchronized void replace(@NonNull List<Purchase> verifiedPurchases) {
+        purchases.clear();
+        put(verifiedPurchases);
+        verifiedAt = System.currentTimeMillis();
+        cached = false;
+        persist();
+    }
+
+    /**
+     * Adds new purchases reported by Play to the snapshot
+     */
+    synchronized void add(@NonNull List<Purchase> verifiedPurchases) {
+        put(verifiedPurchases);
+        verifiedAt = System.currentTimeMillis();
+        cached = false;
+        persist();
+    }
+
+    /**
+     * Removes a purchase from the snapshot, e.g. after it was consumed
+     */
+    synchronized void remove(String purchaseToken) {
+        if (purchases.remove(purchaseToken) != null) {
+            persist();
+        }
+    }
+
+    @NonNull
+    synchronized EntitlementSnapshot snapshot() {
+        Set<String> productIds = new HashSet<>();
+        for (Purchase purchase : purchases.values()) {
+            productIds.addAll(purchase.getProducts());
+        }
+        return new EntitlementSnapshot(productIds, verifiedAt, cached);
+    }
+
+    private void put(@NonNull List<Purchase> verifiedPurchases) {
+        for (Purchase purchase : verifiedPurchases) {
+            purchases.put(purchase.getPurchaseToken(), purchase);
+        }
+    }
+
+    private void persist() {
+        try {
+            JSONArray items = new JSONArray();
+            for (Purchase purchase : purchases.values()) {
+                items.put(new JSONObject()
+                        .put("json", purchase.getOriginalJson())
+                        .put("signature", purchase.getSignature()));
+            }
+            JSONObject root = new JSONObject()
+                    .put("verifiedAt", verifiedAt)
+                    .put("purchases", items);
+            preferences.edit().putString(key, root.toString()).apply();
+        } catch (JSONException e) {
+            logger.accept("Entitlements: can not persist the snapshot: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.mct.iap.billing;
+
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.BILLING_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.DEVELOPER_ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.NETWORK_ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.USER_CANCELED;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.enums.ErrorCategory;
+import com.mct.iap.billing.enums.ErrorType;
+import com.mct.iap.billing.models.BillingResponse;
+
+/**
+ * Classifies billing errors and paces the retries of the transient ones.
+ * <ul>
+ * <li>{@link ErrorCategory#RETRYABLE}: the service, the network or the client was down, the same call can succeed later</li>
+ * <li>{@link ErrorCategory#USER}: the user cancelled, already owns the product or hasn't paid yet, nothing to retry</li>
+ * <li>{@link ErrorCategory#FATAL}: the call or the product is wrong, retrying gives the same result</li>
+ * </ul>
+ */
+public final class ErrorPolicy {
+
+    private static final long MAX_BACKOFF_MILLISECONDS = 30 * 60_000L;
+
+    /**
+     * Returns the category of a failed billing response code
+     */
+    @NonNull
+    public static ErrorCategory classify(int responseCode) {
+        switch (responseCode) {
+            case SERVICE_TIMEOUT:
+            case SERVICE_DISCONNECTED:
+            case SERVICE_UNAVAILABLE:
+            case BILLING_UNAVAILABLE:
+            case NETWORK_ERROR:
+            case ERROR:
+                return ErrorCategory.RETRYABLE;
+            case USER_CANCELED:
+            case ITEM_ALREADY_OWNED:
+                return ErrorCategory.USER;
+            default:
+                return ErrorCategory.FATAL;
+        }
+    }
+
+    /**
+     * Returns the category of an error reported by {@link BillingEventListener#onBillingError}
+     */
+    @NonNull
+    public static ErrorCategory classify(@NonNull BillingResponse response) {
+        switch (response.getErrorType()) {
+            case CLIENT_NOT_READY:
+            case CLIENT_DISCONNECTED:
+                return ErrorCategory.RETRYABLE;
+            case PRODUCT_NOT_EXIST:
+                return ErrorCategory.FATAL;
+            case USER_CANCELED:
+            case ITEM_ALREADY_OWNED:
+            //the purchase is still pending, it is tracked until the user pays
+            case CONSUME_WARNING:
+            case ACKNOWLEDGE_WARNING:
+                return ErrorCategory.USER;
+            default:
+                return classify(response.getResponseCode());
+        }
+    }
+
+    public static boolean isRetryable(int responseCode) {
+        return classify(responseCode) == ErrorCategory.RETRYABLE;
+    }
+
+    /**
+     * Returns the delay before the given attempt of a call that failed with the response code
+     * <p>
+     * A base delay picked by error doubles on each attempt: a dropped service is retried soon,
+     * a missing network later and an unavailable billing (e.g. no Play account) much later
+     *
+     * @param attempt - is the number of the attempt, starting at 1
+     */
+    public static long backoffMillis(int responseCode, int attempt) {
+        long base;
+        switch (responseCode) {
+            case SERVICE_DISCONNECTED:
+            case ERROR:
+                base = 2_000L;
+                break;
+            case BILLING_UNAVAILABLE:
+                base = 60_000L;
+                break;
+            default:
+                base = 5_000L;
+                break;
+        }
+        int shift = Math.min(Math.max(attempt, 1) - 1, 20);
+        return Math.min(MAX_BACKOFF_MILLISECONDS, base << shift);
+    }
+
+    /**
+     * Returns the error type reported for a failed billing response code
+     */
+    @NonNull
+    public static ErrorType toErrorType(int responseCode) {
+        switch (responseCode) {
+            case USER_CANCELED:
+                return ErrorType.USER_CANCELED;
+            case SERVICE_UNAVAILABLE:
+                return ErrorType.SERVICE_UNAVAILABLE;
+            case BILLING_UNAVAILABLE:
+                return ErrorType.BILLING_UNAVAILABLE;
+            case ITEM_UNAVAILABLE:
+                return ErrorType.ITEM_UNAVAILABLE;
+            case DEVELOPER_ERROR:
+                return ErrorType.DEVELOPER_ERROR;
+            case ERROR:
+                return ErrorType.ERROR;
+            case ITEM_ALREADY_OWNED:
+                return ErrorType.ITEM_ALREADY_OWNED;
+            case ITEM_NOT_OWNED:
+                return ErrorType.ITEM_NOT_OWNED;
+            case NETWORK_ERROR:
+                return ErrorType.NETWORK_ERROR;
+            case SERVICE_TIMEOUT:
+            case SERVICE_DISCONNECTED:
+                return ErrorType.CLIENT_DISCONNECTED;
+            default:
+                return ErrorType.BILLING_ERROR;
+        }
+    }
+
+    private ErrorPolicy() {
+        //no instance
+    }
+}
@@ -0,0 +1,123 @@
+package com.mct.iap.billing;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide tracker of whether any activity of the app is started.
+ * <p>
+ * Listeners are called on the main thread when the app moves between foreground and background.
+ * Started activities are tracked by identity, an activity stopped twice or never seen starting
+ * can not take the app to the background while another one is started.
+ */
+class ForegroundTracker implements Application.ActivityLifecycleCallbacks {
+
+    interface Listener {
+        void onForegroundChanged(boolean foreground);
+    }
+
+    private static ForegroundTracker instance;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    //weak keys, a started activity must not be kept alive by the tracker
+    private final Set<Activity> startedActivities = Collections.newSetFromMap(new WeakHashMap<>());
+    //an activity started before the tracker was registered, it is only known once it stops
+    private boolean untrackedActivityStarted;
+    private volatile boolean foreground;
+
+    private ForegroundTracker() {
+        //the tracker may be created while an activity is already started
+        ActivityManager.RunningAppProcessInfo info = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(info);
+        foreground = info.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+        untrackedActivityStarted = foreground;
+    }
+
+    /**
+     * Returns the tracker, or null if the application context is not available
+     */
+    @Nullable
+    static synchronized ForegroundTracker get(@NonNull Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            if (!(applicationContext instanceof Application)) {
+                return null;
+            }
+            instance = new ForegroundTracker();
+            ((Application) applicationContext).registerActivityLifecycleCallbacks(instance);
+        }
+        return instance;
+    }
+
+    boolean isForeground() {
+        return foreground;
+    }
+
+    void addListener(@NonNull Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        startedActivities.add(activity);
+        if (!foreground) {
+            setForeground(true);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        if (!startedActivities.remove(activity)) {
+            //started before the tracker was registered
+            untrackedActivityStarted = false;
+        }
+        if (startedActivities.isEmpty() && !untrackedActivityStarted && foreground && !activity.isChangingConfigurations()) {
+            setForeground(false);
+        }
+    }
+
+    private void setForeground(boolean foreground) {
+        this.foreground = foreground;
+        for (Listener listener : listeners) {
+            listener.onForegroundChanged(foreground);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+    }
+}
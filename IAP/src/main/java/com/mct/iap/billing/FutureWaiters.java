@@ -0,0 +1,122 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Futures waiting for a condition on the connector state, e.g. the client being ready.
+ * <p>
+ * {@link #check()} has to be called whenever the state the conditions depend on changes,
+ * {@link #fail(Topic, Throwable)} whenever the call the waiters of a topic depend on fails.
+ */
+final class FutureWaiters {
+
+    /**
+     * What a waiter depends on
+     */
+    enum Topic {
+        CONNECTION,
+        PRODUCTS,
+        PURCHASES
+    }
+
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    /**
+     * Returns a future completed as soon as the condition is true
+     */
+    @NonNull
+    CompletableFuture<Void> when(@NonNull Topic topic, @NonNull BooleanSupplier condition) {
+        if (condition.getAsBoolean()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Waiter waiter = new Waiter(topic, condition);
+        synchronized (this) {
+            waiters.add(waiter);
+        }
+        //the state may have changed while the waiter was added
+        check();
+        return waiter.future;
+    }
+
+    void check() {
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.future.isDone()) {
+                    iterator.remove();
+                } else if (waiter.condition.getAsBoolean()) {
+                    iterator.remove();
+                    ready.add(waiter);
+                }
+            }
+        }
+        //completed outside the lock, dependent stages run synchronously
+        for (Waiter waiter : ready) {
+            waiter.future.complete(null);
+        }
+    }
+
+    /**
+     * Fails the waiters of the topic whose condition is still false, the others are completed
+     */
+    void fail(@NonNull Topic topic, @NonNull Throwable throwable) {
+        List<Waiter> ready = new ArrayList<>();
+        List<Waiter> failed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.future.isDone()) {
+                    iterator.remove();
+                    continue;
+                }
+                if (waiter.topic != topic) {
+                    continue;
+                }
+                iterator.remove();
+                if (waiter.condition.getAsBoolean()) {
+                    ready.add(waiter);
+                } else {
+                    failed.add(waiter);
+                }
+            }
+        }
+        for (Waiter waiter : ready) {
+            waiter.future.complete(null);
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(throwable);
+        }
+    }
+
+    void failAll(@NonNull Throwable throwable) {
+        List<Waiter> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(throwable);
+        }
+    }
+
+    private static final class Waiter {
+
+        private final Topic topic;
+        private final BooleanSupplier condition;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Waiter(Topic topic, BooleanSupplier condition) {
+            this.topic = topic;
+            this.condition = condition;
+        }
+    }
+}
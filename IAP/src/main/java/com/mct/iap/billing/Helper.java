@@ -1,7 +1,9 @@
 package com.mct.iap.billing;
 
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ERROR;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.OK;
 import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
 import static com.android.billingclient.api.BillingClient.FeatureType.SUBSCRIPTIONS;
 import static com.android.billingclient.api.BillingClient.ProductType.INAPP;
 import static com.android.billingclient.api.BillingClient.ProductType.SUBS;
@@ -14,16 +16,30 @@ import com.android.billingclient.api.ProductDetails;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.QueryProductDetailsParams;
 import com.android.billingclient.api.QueryPurchasesParams;
+import com.mct.iap.billing.enums.ErrorType;
 import com.mct.iap.billing.enums.SupportState;
+import com.mct.iap.billing.models.BillingResponse;
+import com.mct.iap.billing.models.ProductInfo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.core.SingleOnSubscribe;
 import io.reactivex.rxjava3.disposables.Disposable;
@@ -31,33 +47,155 @@ import io.reactivex.rxjava3.schedulers.Schedulers;
 
 class Helper {
 
+    private static final long QUERY_TIMEOUT_MILLISECONDS = 20_000L;
+    private static final int CHUNK_MAX_RETRIES = 2;
+    private static final long CHUNK_RETRY_DELAY_MILLISECONDS = 1000L;
+
+    /**
+     * Purchases are processed one batch at a time, in the order they arrive, away from the main thread
+     */
+    private static final ExecutorService purchaseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "iap-purchases");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs a purchase processing task on the purchase thread
+     */
+    static void runOnPurchaseThread(@NonNull Runnable task) {
+        purchaseExecutor.execute(task);
+    }
+
+    /**
+     * Queries the product details, the listener gets the failure of a product type (or null) next to the products of the others
+     */
     @NonNull
     static Disposable queryProductDetails(BillingClient client,
                                           List<QueryProductDetailsParams.Product> products,
-                                          Consumer<List<ProductDetails>> listener) {
-        return queryProductDetailsSingle(client, products)
+                                          BiConsumer<List<ProductDetails>, BillingResponse> listener) {
+        AtomicReference<BillingResponse> failure = new AtomicReference<>();
+        return queryProductDetailsSingle(client, products, failure)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe((productDetails, throwable) -> {
                     if (listener != null) {
-                        if (productDetails != null) {
-                            listener.accept(productDetails);
-                        } else {
-                            listener.accept(Collections.emptyList());
-                        }
+                        listener.accept(productDetails != null ? productDetails : Collections.emptyList(), failure.get());
                     }
                 });
     }
 
+    /**
+     * Delivers the product details of each product type as soon as its query returns
+     * <p>
+     * The complete listener gets the failure of a product type, or null if all of them succeeded
+     */
     @NonNull
-    static Disposable queryPurchases(BillingClient client, Consumer<List<Purchase>> listener) {
-        return queryPurchasesSingle(client)
+    static Disposable queryProductDetailsProgressive(BillingClient client,
+                                                     List<QueryProductDetailsParams.Product> products,
+                                                     Consumer<List<ProductDetails>> batchListener,
+                                                     Consumer<BillingResponse> completeListener) {
+        List<QueryProductDetailsParams.Product> productInAppList = products.stream().filter(p -> p.zzb().equals(INAPP)).collect(Collectors.toList());
+        List<QueryProductDetailsParams.Product> productSubsList = products.stream().filter(p -> p.zzb().equals(SUBS)).collect(Collectors.toList());
+        AtomicReference<BillingResponse> failure = new AtomicReference<>();
+        return Single.merge(
+                        queryProductDetailsAsync(client, productInAppList, failure),
+                        queryProductDetailsAsync(client, productSubsList, failure))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe((productDetails, throwable) -> {
+                .subscribe(productDetails -> {
+                    if (batchListener != null && !productDetails.isEmpty()) {
+                        batchListener.accept(productDetails);
+                    }
+                }, throwable -> {
+                    if (completeListener != null) {
+                        completeListener.accept(failure.get() != null ? failure.get() : toResponse(throwable));
+                    }
+                }, () -> {
+                    if (completeListener != null) {
+                        completeListener.accept(failure.get());
+                    }
+                });
+    }
+
+    /**
+     * Queries the product details in chunks of at most chunkSize products, with at most maxChunksInFlight
+     * chunks queried at the same time
+     * <p>
+     * Each chunk is delivered as soon as it returns and is retried on its own, a chunk that keeps
+     * failing is skipped without losing the others and its failure is given to the complete listener
+     */
+    @NonNull
+    static Disposable queryProductDetailsChunked(BillingClient client,
+                                                 List<QueryProductDetailsParams.Product> products,
+                                                 int chunkSize,
+                                                 int maxChunksInFlight,
+                                                 Consumer<List<ProductDetails>> batchListener,
+                                                 Consumer<BillingResponse> completeListener) {
+        AtomicReference<BillingResponse> failure = new AtomicReference<>();
+        List<List<QueryProductDetailsParams.Product>> chunks = new ArrayList<>();
+        chunks.addAll(chunk(products.stream().filter(p -> p.zzb().equals(INAPP)).collect(Collectors.toList()), chunkSize));
+        chunks.addAll(chunk(products.stream().filter(p -> p.zzb().equals(SUBS)).collect(Collectors.toList()), chunkSize));
+        return Flowable.fromIterable(chunks)
+                .flatMapSingle(chunk -> queryProductDetailsChunk(client, chunk, failure), false, Math.max(1, maxChunksInFlight))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(productDetails -> {
+                    if (batchListener != null && !productDetails.isEmpty()) {
+                        batchListener.accept(productDetails);
+                    }
+                }, throwable -> {
+                    if (completeListener != null) {
+                        completeListener.accept(failure.get() != null ? failure.get() : toResponse(throwable));
+                    }
+                }, () -> {
+                    if (completeListener != null) {
+                        completeListener.accept(failure.get());
+                    }
+                });
+    }
+
+    /**
+     * Queries the purchases of all product types, the listener is called on the main thread
+     * <p>
+     * If a query failed, the listener gets null purchases and the failure, so a failure is not mistaken for purchases that are gone
+     */
+    @NonNull
+    static Disposable queryPurchases(BillingClient client, BiConsumer<List<Purchase>, BillingResponse> listener) {
+        return queryPurchases(client, Arrays.asList(INAPP, SUBS), listener);
+    }
+
+    /**
+     * Queries the purchases of the given product types, the listener is called on the main thread
+     * <p>
+     * If a query failed, the listener gets null purchases and the failure
+     */
+    @NonNull
+    static Disposable queryPurchases(BillingClient client, Collection<String> productTypes, BiConsumer<List<Purchase>, BillingResponse> listener) {
+        Single<List<Purchase>> purchases = Single.just(Collections.emptyList());
+        //all product types are queried at the same time
+        for (String productType : productTypes) {
+            purchases = Single.zip(purchases, queryPurchasesAsync(client, productType), Helper::merge);
+        }
+        return purchases
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe((result, throwable) -> {
                     if (listener != null) {
-                        if (productDetails != null) {
-                            listener.accept(productDetails);
+                        listener.accept(result, throwable != null ? toResponse(throwable) : null);
+                    }
+                });
+    }
+
+    @NonNull
+    static Disposable loadProductDetailsCache(ProductDetailsCache cache, List<String> productIds, Consumer<List<ProductInfo>> listener) {
+        return Single.fromCallable(() -> cache.load(productIds))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe((products, throwable) -> {
+                    if (listener != null) {
+                        if (products != null) {
+                            listener.accept(products);
                         } else {
                             listener.accept(Collections.emptyList());
                         }
@@ -65,6 +203,32 @@ class Helper {
                 });
     }
 
+    @NonNull
+    static Disposable saveProductDetailsCache(ProductDetailsCache cache, List<ProductInfo> products) {
+        return Single.fromCallable(() -> {
+                    cache.save(products);
+                    return true;
+                })
+                .subscribeOn(Schedulers.io())
+                .subscribe((saved, throwable) -> {
+                });
+    }
+
+    /**
+     * Checks the subscription support away from the main thread, a cheap call to find out if the connection still answers
+     */
+    @NonNull
+    static Disposable probeConnection(BillingClient client, Consumer<SupportState> listener) {
+        return Single.fromCallable(() -> isSubscriptionSupported(client))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe((supportState, throwable) -> {
+                    if (listener != null) {
+                        listener.accept(supportState != null ? supportState : SupportState.DISCONNECTED);
+                    }
+                });
+    }
+
     static SupportState isSubscriptionSupported(@NonNull BillingClient billingClient) {
         BillingResult response = billingClient.isFeatureSupported(SUBSCRIPTIONS);
         switch (response.getResponseCode()) {
@@ -77,87 +241,162 @@ class Helper {
         }
     }
 
-    private static Single<List<ProductDetails>> queryProductDetailsSingle(BillingClient client, List<QueryProductDetailsParams.Product> products) {
+    private static Single<List<ProductDetails>> queryProductDetailsSingle(BillingClient client,
+                                                                         List<QueryProductDetailsParams.Product> products,
+                                                                         AtomicReference<BillingResponse> failure) {
+        List<QueryProductDetailsParams.Product> productInAppList = products.stream().filter(p -> p.zzb().equals(INAPP)).collect(Collectors.toList());
+        List<QueryProductDetailsParams.Product> productSubsList = products.stream().filter(p -> p.zzb().equals(SUBS)).collect(Collectors.toList());
+        //both product types are queried at the same time
+        return Single.zip(
+                queryProductDetailsAsync(client, productInAppList, failure),
+                queryProductDetailsAsync(client, productSubsList, failure),
+                Helper::merge);
+    }
+
+    /**
+     * Queries the product details without blocking any thread
+     * <p>
+     * An empty list is returned if the query fails or the billing callback doesn't fire before the deadline,
+     * the failure is kept in the given reference
+     */
+    @NonNull
+    private static Single<List<ProductDetails>> queryProductDetailsAsync(BillingClient client,
+                                                                         List<QueryProductDetailsParams.Product> products,
+                                                                         AtomicReference<BillingResponse> failure) {
         return Single.create((SingleOnSubscribe<List<ProductDetails>>) emitter -> {
-            List<QueryProductDetailsParams.Product> productInAppList = products.stream().filter(p -> p.zzb().equals(INAPP)).collect(Collectors.toList());
-            List<QueryProductDetailsParams.Product> productSubsList = products.stream().filter(p -> p.zzb().equals(SUBS)).collect(Collectors.toList());
-            if (emitter.isDisposed()) {
-                return;
-            }
-            List<ProductDetails> result1 = queryProductDetailsSync(client, productInAppList);
-            if (emitter.isDisposed()) {
-                return;
-            }
-            List<ProductDetails> result2 = queryProductDetailsSync(client, productSubsList);
-            if (emitter.isDisposed()) {
-                return;
-            }
-            emitter.onSuccess(Stream.of(result1, result2).flatMap(List::stream).collect(Collectors.toList()));
-        });
-    }
-
-    private static Single<List<Purchase>> queryPurchasesSingle(BillingClient client) {
-        return Single.create((SingleOnSubscribe<List<Purchase>>) emitter -> {
-            if (emitter.isDisposed()) {
-                return;
-            }
-            List<Purchase> result1 = queryPurchasesSync(client, INAPP);
-            if (emitter.isDisposed()) {
-                return;
-            }
-            List<Purchase> result2 = queryPurchasesSync(client, SUBS);
-            if (emitter.isDisposed()) {
-                return;
-            }
-            emitter.onSuccess(Stream.of(result1, result2).flatMap(List::stream).collect(Collectors.toList()));
-        });
-    }
-
-    @NonNull
-    private static List<ProductDetails> queryProductDetailsSync(BillingClient client, List<QueryProductDetailsParams.Product> products) {
+                    if (products == null || products.isEmpty()) {
+                        emitter.onSuccess(Collections.emptyList());
+                        return;
+                    }
+                    if (!client.isReady()) {
+                        emitter.tryOnError(notReady());
+                        return;
+                    }
+                    QueryProductDetailsParams params = QueryProductDetailsParams.newBuilder().setProductList(products).build();
+                    //a timed out query, or one disposed by zip or merge, must not send its late error to the error handler
+                    client.queryProductDetailsAsync(params, (billingResult, list) -> {
+                        if (billingResult.getResponseCode() == OK) {
+                            emitter.onSuccess(list != null ? list : Collections.emptyList());
+                        } else {
+                            emitter.tryOnError(failed("Query product details failed", billingResult));
+                        }
+                    });
+                })
+                .timeout(QUERY_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)
+                .doOnError(throwable -> failure.set(toResponse(throwable)))
+                .onErrorReturnItem(Collections.emptyList());
+    }
+
+    /**
+     * Queries one chunk of product details, transient failures and timeouts are retried with a growing delay
+     * <p>
+     * An empty list is returned once the retries are exhausted, the failure is kept in the given reference
+     */
+    @NonNull
+    private static Single<List<ProductDetails>> queryProductDetailsChunk(BillingClient client,
+                                                                         List<QueryProductDetailsParams.Product> products,
+                                                                         AtomicReference<BillingResponse> failure) {
         return Single.create((SingleOnSubscribe<List<ProductDetails>>) emitter -> {
-            if (emitter.isDisposed()) {
-                return;
-            }
-            if (!client.isReady()) {
-                emitter.onSuccess(Collections.emptyList());
-                return;
-            }
-            if (products == null || products.isEmpty()) {
-                emitter.onSuccess(Collections.emptyList());
-                return;
-            }
-            QueryProductDetailsParams params = QueryProductDetailsParams.newBuilder().setProductList(products).build();
-            client.queryProductDetailsAsync(params, (billingResult, list) -> {
-                if (emitter.isDisposed()) {
-                    return;
-                }
-                emitter.onSuccess(list);
-            });
-        }).blockingGet();
-    }
-
-    private static List<Purchase> queryPurchasesSync(BillingClient client, @BillingClient.ProductType String productType) {
+                    if (!client.isReady()) {
+                        emitter.tryOnError(notReady());
+                        return;
+                    }
+                    QueryProductDetailsParams params = QueryProductDetailsParams.newBuilder().setProductList(products).build();
+                    //a retried or timed out attempt is disposed, its late answer must not reach the error handler
+                    client.queryProductDetailsAsync(params, (billingResult, list) -> {
+                        if (billingResult.getResponseCode() == OK) {
+                            emitter.onSuccess(list != null ? list : Collections.emptyList());
+                        } else {
+                            emitter.tryOnError(failed("Query product details failed", billingResult));
+                        }
+                    });
+                })
+                .timeout(QUERY_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)
+                .retryWhen(errors -> {
+                    AtomicInteger attempts = new AtomicInteger();
+                    return errors.flatMap(error -> attempts.incrementAndGet() > CHUNK_MAX_RETRIES
+                            || !ErrorPolicy.isRetryable(toResponse(error).getResponseCode())
+                            ? Flowable.error(error)
+                            : Flowable.timer(CHUNK_RETRY_DELAY_MILLISECONDS * attempts.get(), TimeUnit.MILLISECONDS));
+                })
+                .doOnError(throwable -> failure.set(toResponse(throwable)))
+                .onErrorReturnItem(Collections.emptyList());
+    }
+
+    /**
+     * Queries the purchases without blocking any thread, fails if the query fails or doesn't answer before the deadline
+     */
+    @NonNull
+    private static Single<List<Purchase>> queryPurchasesAsync(BillingClient client, @BillingClient.ProductType String productType) {
         return Single.create((SingleOnSubscribe<List<Purchase>>) emitter -> {
-            if (emitter.isDisposed()) {
-                return;
-            }
-            if (!client.isReady()) {
-                emitter.onSuccess(Collections.emptyList());
-                return;
-            }
-            if (Objects.equals(productType, SUBS) && isSubscriptionSupported(client) != SupportState.SUPPORTED) {
-                emitter.onSuccess(Collections.emptyList());
-                return;
-            }
-            QueryPurchasesParams params = QueryPurchasesParams.newBuilder().setProductType(productType).build();
-            client.queryPurchasesAsync(params, (billingResult, purchases) -> {
-                if (emitter.isDisposed()) {
-                    return;
-                }
-                emitter.onSuccess(purchases);
-            });
-        }).blockingGet();
+                    if (!client.isReady()) {
+                        emitter.tryOnError(notReady());
+                        return;
+                    }
+                    if (Objects.equals(productType, SUBS)) {
+                        SupportState supportState = isSubscriptionSupported(client);
+                        if (supportState == SupportState.DISCONNECTED) {
+                            //not knowing is not the same as having no subscription
+                            emitter.tryOnError(notReady());
+                            return;
+                        }
+                        if (supportState == SupportState.NOT_SUPPORTED) {
+                            emitter.onSuccess(Collections.emptyList());
+                            return;
+                        }
+                    }
+                    QueryPurchasesParams params = QueryPurchasesParams.newBuilder().setProductType(productType).build();
+                    //a timed out query, or one disposed by zip when the other type failed, must not send its late error to the error handler
+                    client.queryPurchasesAsync(params, (billingResult, purchases) -> {
+                        if (billingResult.getResponseCode() == OK) {
+                            emitter.onSuccess(purchases != null ? purchases : Collections.emptyList());
+                        } else {
+                            emitter.tryOnError(failed("Query purchases failed", billingResult));
+                        }
+                    });
+                })
+                .timeout(QUERY_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    private static BillingException notReady() {
+        return new BillingException(new BillingResponse(ErrorType.CLIENT_NOT_READY, "Billing client is not ready", SERVICE_DISCONNECTED));
+    }
+
+    @NonNull
+    private static BillingException failed(String message, @NonNull BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        return new BillingException(new BillingResponse(ErrorPolicy.toErrorType(responseCode),
+                message + ": " + billingResult.getDebugMessage(), responseCode));
+    }
+
+    /**
+     * Returns the response carried by a query failure, a timeout is reported as SERVICE_TIMEOUT
+     */
+    @NonNull
+    private static BillingResponse toResponse(@NonNull Throwable throwable) {
+        if (throwable instanceof BillingException) {
+            return ((BillingException) throwable).getResponse();
+        }
+        if (throwable instanceof TimeoutException) {
+            return new BillingResponse(ErrorType.CLIENT_DISCONNECTED,
+                    "Billing service: no answer after " + QUERY_TIMEOUT_MILLISECONDS + " ms", SERVICE_TIMEOUT);
+        }
+        return new BillingResponse(ErrorType.BILLING_ERROR, String.valueOf(throwable.getMessage()), ERROR);
+    }
+
+    @NonNull
+    private static <T> List<List<T>> chunk(@NonNull List<T> list, int chunkSize) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += chunkSize) {
+            chunks.add(new ArrayList<>(list.subList(i, Math.min(list.size(), i + chunkSize))));
+        }
+        return chunks;
+    }
+
+    @NonNull
+    private static <T> List<T> merge(@NonNull List<T> first, @NonNull List<T> second) {
+        return Stream.of(first, second).flatMap(List::stream).collect(Collectors.toList());
     }
 
     private Helper() {
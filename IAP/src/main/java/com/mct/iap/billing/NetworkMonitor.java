@@ -0,0 +1,62 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.function.Consumer;
+
+/**
+ * Watches the default network and calls the listener on the main thread whenever a network becomes available.
+ * <p>
+ * Requires the ACCESS_NETWORK_STATE permission, which is declared by the library manifest.
+ */
+class NetworkMonitor extends ConnectivityManager.NetworkCallback {
+
+    private final ConnectivityManager connectivityManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable listener;
+    private final Consumer<String> logger;
+    private boolean started;
+
+    NetworkMonitor(@NonNull Context context, @NonNull Runnable listener, @NonNull Consumer<String> logger) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+        this.logger = logger;
+    }
+
+    synchronized void start() {
+        if (started || connectivityManager == null) {
+            return;
+        }
+        try {
+            connectivityManager.registerDefaultNetworkCallback(this);
+            started = true;
+        } catch (RuntimeException e) {
+            //too many callbacks registered by the app, or the permission was removed
+            logger.accept("Network monitor: can not watch the network: " + e.getMessage());
+        }
+    }
+
+    synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        handler.removeCallbacksAndMessages(null);
+        try {
+            connectivityManager.unregisterNetworkCallback(this);
+        } catch (RuntimeException e) {
+            logger.accept("Network monitor: can not stop watching the network: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAvailable(@NonNull Network network) {
+        handler.post(listener);
+    }
+}
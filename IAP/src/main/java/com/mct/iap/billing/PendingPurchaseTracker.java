@@ -0,0 +1,69 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the purchases waiting for their payment, e.g. cash at a store, and paces their re-queries.
+ * <p>
+ * The first checks are close together since most payments complete within minutes, then the delay
+ * doubles up to 15 minutes. A newly tracked purchase makes the checks fast again.
+ */
+final class PendingPurchaseTracker {
+
+    private static final long FAST_DELAY_MILLISECONDS = 5_000L;
+    private static final int FAST_ATTEMPTS = 3;
+    private static final long MAX_DELAY_MILLISECONDS = 15 * 60_000L;
+
+    //purchase token to product type
+    private final Map<String, String> pendingPurchases = new HashMap<>();
+    private int attempt;
+
+    /**
+     * @return true if the purchase was not tracked yet
+     */
+    synchronized boolean track(@NonNull String purchaseToken, @NonNull String productType) {
+        if (pendingPurchases.put(purchaseToken, productType) != null) {
+            return false;
+        }
+        attempt = 0;
+        return true;
+    }
+
+    /**
+     * @return true if the purchase was tracked
+     */
+    synchronized boolean untrack(@NonNull String purchaseToken) {
+        return pendingPurchases.remove(purchaseToken) != null;
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingPurchases.isEmpty();
+    }
+
+    @NonNull
+    synchronized Set<String> getPurchaseTokens() {
+        return new HashSet<>(pendingPurchases.keySet());
+    }
+
+    @NonNull
+    synchronized Set<String> getProductTypes() {
+        return new HashSet<>(pendingPurchases.values());
+    }
+
+    /**
+     * Returns the delay before the next check and counts it
+     */
+    synchronized long nextDelayMillis() {
+        attempt++;
+        if (attempt <= FAST_ATTEMPTS) {
+            return FAST_DELAY_MILLISECONDS;
+        }
+        int shift = Math.min(attempt - FAST_ATTEMPTS, 20);
+        return Math.min(MAX_DELAY_MILLISECONDS, FAST_DELAY_MILLISECONDS << shift);
+    }
+}
@@ -0,0 +1,92 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mct.iap.billing.models.ProductInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of the fetched products by product id.
+ * <p>
+ * Every update returns a new catalog, so readers always see a consistent snapshot.
+ */
+final class ProductCatalog {
+
+    static final ProductCatalog EMPTY = new ProductCatalog(Collections.emptyMap());
+
+    private final Map<String, ProductInfo> products;
+    private final List<ProductInfo> productList;
+
+    private ProductCatalog(@NonNull Map<String, ProductInfo> products) {
+        this.products = Collections.unmodifiableMap(products);
+        this.productList = Collections.unmodifiableList(new ArrayList<>(products.values()));
+    }
+
+    /**
+     * Returns a catalog holding only the given products
+     */
+    @NonNull
+    static ProductCatalog of(@NonNull Collection<ProductInfo> products) {
+        return EMPTY.merge(products);
+    }
+
+    /**
+     * Returns a new catalog where the given products are added or replace the ones with the same id
+     */
+    @NonNull
+    ProductCatalog merge(@NonNull Collection<ProductInfo> products) {
+        if (products.isEmpty()) {
+            return this;
+        }
+        Map<String, ProductInfo> merged = new LinkedHashMap<>(this.products);
+        for (ProductInfo product : products) {
+            merged.put(product.getProduct(), product);
+        }
+        return new ProductCatalog(merged);
+    }
+
+    /**
+     * Returns a new catalog without the given products
+     */
+    @NonNull
+    ProductCatalog remove(@NonNull Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return this;
+        }
+        Map<String, ProductInfo> remaining = new LinkedHashMap<>(this.products);
+        remaining.keySet().removeAll(productIds);
+        return remaining.size() == this.products.size() ? this : new ProductCatalog(remaining);
+    }
+
+    @Nullable
+    ProductInfo get(String productId) {
+        return products.get(productId);
+    }
+
+    boolean contains(String productId) {
+        return products.containsKey(productId);
+    }
+
+    boolean isEmpty() {
+        return products.isEmpty();
+    }
+
+    int size() {
+        return products.size();
+    }
+
+    /**
+     * Returns the products in insertion order, the list is read-only
+     */
+    @NonNull
+    List<ProductInfo> getProducts() {
+        return productList;
+    }
+}
@@ -0,0 +1,263 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.enums.SkuProductType;
+import com.mct.iap.billing.models.ProductInfo;
+import com.mct.iap.billing.models.SubscriptionOfferDetails;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Disk cache of the product fields exposed by {@link ProductInfo}, keyed by locale and product id.
+ * <p>
+ * Only the products of the last save in the current locale are kept. All methods do file IO and must not be called on the main thread.
+ */
+class ProductDetailsCache {
+
+    private static final String FILE_NAME = "iap_product_details.json";
+
+    private final File file;
+    private final long ttlMillis;
+    private final Consumer<String> logger;
+
+    ProductDetailsCache(@NonNull Context context, long ttlMillis, @NonNull Consumer<String> logger) {
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+        this.ttlMillis = ttlMillis;
+        this.logger = logger;
+    }
+
+    long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Returns the cached products of the current locale that are not older than the TTL
+     */
+    @NonNull
+    synchronized List<ProductInfo> load(@NonNull Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        JSONObject root = read();
+        String locale = locale();
+        long now = System.currentTimeMillis();
+        List<ProductInfo> result = new ArrayList<>();
+        for (String productId : productIds) {
+            JSONObject entry = root.optJSONObject(key(locale, productId));
+            if (entry == null || now - entry.optLong("savedAt") > ttlMillis) {
+                continue;
+            }
+            try {
+                result.add(fromJson(entry));
+            } catch (JSONException | IllegalArgumentException e) {
+                logger.accept("Product cache: skip invalid entry of " + productId + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the given products for the current locale, the entries of other locales and other products are dropped
+     */
+    synchronized void save(@NonNull List<ProductInfo> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+        JSONObject root = new JSONObject();
+        String locale = locale();
+        long now = System.currentTimeMillis();
+        try {
+            for (ProductInfo product : products) {
+                JSONObject entry = toJson(product);
+                entry.put("savedAt", now);
+                root.put(key(locale, product.getProduct()), entry);
+            }
+        } catch (JSONException e) {
+            logger.accept("Product cache: can not serialize products: " + e.getMessage());
+            return;
+        }
+        write(root);
+    }
+
+    /**
+     * Returns true if both lists hold the same products with the same prices, offer tokens and pricing phases
+     */
+    static boolean isSamePricing(@NonNull List<ProductInfo> first, @NonNull List<ProductInfo> second) {
+        if (first.size() != second.size()) {
+            return false;
+        }
+        Map<String, String> fingerprints = new HashMap<>();
+        for (ProductInfo product : first) {
+            fingerprints.put(product.getProduct(), fingerprint(product));
+        }
+        for (ProductInfo product : second) {
+            if (!fingerprint(product).equals(fingerprints.get(product.getProduct()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static String fingerprint(@NonNull ProductInfo product) {
+        StringBuilder builder = new StringBuilder()
+                .append(product.getOneTimePurchaseOfferFormattedPrice()).append('|')
+                .append(product.getOneTimePurchaseOfferPriceAmountMicros()).append('|')
+                .append(product.getOneTimePurchaseOfferPriceCurrencyCode());
+        for (SubscriptionOfferDetails offer : product.getSubscriptionOfferDetails()) {
+            builder.append('|').append(offer.getOfferToken());
+            for (SubscriptionOfferDetails.PricingPhases phase : offer.getPricingPhases()) {
+                builder.append('|').append(phase.getFormattedPrice())
+                        .append(',').append(phase.getPriceAmountMicros())
+                        .append(',').append(phase.getPriceCurrencyCode())
+                        .append(',').append(phase.getBillingPeriod())
+                        .append(',').append(phase.getBillingCycleCount())
+                        .append(',').append(phase.getRecurrenceMode());
+            }
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    private static String locale() {
+        return Locale.getDefault().toLanguageTag();
+    }
+
+    @NonNull
+    private static String key(String locale, String productId) {
+        return locale + "/" + productId;
+    }
+
+    @NonNull
+    private static JSONObject toJson(@NonNull ProductInfo product) throws JSONException {
+        JSONArray offers = new JSONArray();
+        for (SubscriptionOfferDetails offer : product.getSubscriptionOfferDetails()) {
+            JSONArray phases = new JSONArray();
+            for (SubscriptionOfferDetails.PricingPhases phase : offer.getPricingPhases()) {
+                phases.put(new JSONObject()
+                        .put("formattedPrice", phase.getFormattedPrice())
+                        .put("priceAmountMicros", phase.getPriceAmountMicros())
+                        .put("priceCurrencyCode", phase.getPriceCurrencyCode())
+                        .put("billingPeriod", phase.getBillingPeriod())
+                        .put("billingCycleCount", phase.getBillingCycleCount())
+                        .put("recurrenceMode", phase.getRecurrenceMode()));
+            }
+            offers.put(new JSONObject()
+                    .put("offerId", offer.getOfferId())
+                    .put("offerTags", new JSONArray(offer.getOfferTags() == null ? Collections.emptyList() : offer.getOfferTags()))
+                    .put("offerToken", offer.getOfferToken())
+                    .put("basePlanId", offer.getBasePlanId())
+                    .put("pricingPhases", phases));
+        }
+        return new JSONObject()
+                .put("skuProductType", product.getSkuProductType().name())
+                .put("product", product.getProduct())
+                .put("description", product.getDescription())
+                .put("title", product.getTitle())
+                .put("type", product.getType())
+                .put("name", product.getName())
+                .put("formattedPrice", product.getOneTimePurchaseOfferFormattedPrice())
+                .put("priceAmountMicros", product.getOneTimePurchaseOfferPriceAmountMicros())
+                .put("priceCurrencyCode", product.getOneTimePurchaseOfferPriceCurrencyCode())
+                .put("offers", offers);
+    }
+
+    @NonNull
+    private static ProductInfo fromJson(@NonNull JSONObject json) throws JSONException {
+        List<SubscriptionOfferDetails> offers = new ArrayList<>();
+        JSONArray offersJson = json.getJSONArray("offers");
+        for (int i = 0; i < offersJson.length(); i++) {
+            JSONObject offer = offersJson.getJSONObject(i);
+            List<String> tags = new ArrayList<>();
+            JSONArray tagsJson = offer.getJSONArray("offerTags");
+            for (int j = 0; j < tagsJson.length(); j++) {
+                tags.add(tagsJson.getString(j));
+            }
+            List<SubscriptionOfferDetails.PricingPhases> phases = new ArrayList<>();
+            JSONArray phasesJson = offer.getJSONArray("pricingPhases");
+            for (int j = 0; j < phasesJson.length(); j++) {
+                JSONObject phase = phasesJson.getJSONObject(j);
+                phases.add(new SubscriptionOfferDetails.PricingPhases(
+                        phase.optString("formattedPrice", null),
+                        phase.getLong("priceAmountMicros"),
+                        phase.optString("priceCurrencyCode", null),
+                        phase.optString("billingPeriod", null),
+                        phase.getInt("billingCycleCount"),
+                        phase.getInt("recurrenceMode")));
+            }
+            offers.add(new SubscriptionOfferDetails(
+                    offer.optString("offerId", null),
+                    tags,
+                    offer.optString("offerToken", null),
+                    offer.optString("basePlanId", null),
+                    phases));
+        }
+        return new ProductInfo(
+                SkuProductType.valueOf(json.getString("skuProductType")),
+                json.getString("product"),
+                json.optString("description", null),
+                json.optString("title", null),
+                json.optString("type", null),
+                json.optString("name", null),
+                json.optString("formattedPrice", null),
+                json.optLong("priceAmountMicros"),
+                json.optString("priceCurrencyCode", null),
+                offers);
+    }
+
+    @NonNull
+    private JSONObject read() {
+        if (!file.exists()) {
+            return new JSONObject();
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            return new JSONObject(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            logger.accept("Product cache: can not read the file: " + e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    private void write(@NonNull JSONObject root) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.accept("Product cache: can not write the file: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            logger.accept("Product cache: can not replace the file");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.models.PurchaseInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Purchases indexed by purchase token, with a secondary index by product id.
+ * <p>
+ * A purchase holding several products is stored as one entry per product under the same token,
+ * receiving a purchase again replaces the previous entries of its token instead of duplicating them.
+ */
+final class PurchaseStore {
+
+    private final Map<String, List<PurchaseInfo>> purchasesByToken = new LinkedHashMap<>();
+    private final Map<String, Set<String>> tokensByProduct = new HashMap<>();
+
+    /**
+     * Replaces all the stored purchases, used when the owned purchases are queried again
+     */
+    synchronized void replaceAll(@NonNull List<PurchaseInfo> purchases) {
+        purchasesByToken.clear();
+        tokensByProduct.clear();
+        putAll(purchases);
+    }
+
+    /**
+     * Adds the purchases, replacing the stored ones with the same token
+     */
+    synchronized void putAll(@NonNull List<PurchaseInfo> purchases) {
+        Map<String, List<PurchaseInfo>> received = new LinkedHashMap<>();
+        for (PurchaseInfo purchase : purchases) {
+            List<PurchaseInfo> list = received.get(purchase.getPurchaseToken());
+            if (list == null) {
+                list = new ArrayList<>();
+                received.put(purchase.getPurchaseToken(), list);
+            }
+            list.add(purchase);
+        }
+        for (Map.Entry<String, List<PurchaseInfo>> entry : received.entrySet()) {
+            remove(entry.getKey());
+            purchasesByToken.put(entry.getKey(), entry.getValue());
+            for (PurchaseInfo purchase : entry.getValue()) {
+                Set<String> tokens = tokensByProduct.get(purchase.getProduct());
+                if (tokens == null) {
+                    tokens = new HashSet<>();
+                    tokensByProduct.put(purchase.getProduct(), tokens);
+                }
+                tokens.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries of a purchase, e.g. after it was consumed
+     */
+    synchronized void remove(String purchaseToken) {
+        List<PurchaseInfo> removed = purchasesByToken.remove(purchaseToken);
+        if (removed == null) {
+            return;
+        }
+        for (PurchaseInfo purchase : removed) {
+            Set<String> tokens = tokensByProduct.get(purchase.getProduct());
+            if (tokens != null) {
+                tokens.remove(purchaseToken);
+                if (tokens.isEmpty()) {
+                    tokensByProduct.remove(purchase.getProduct());
+                }
+            }
+        }
+    }
+
+    synchronized boolean isPurchased(String productId) {
+        return tokensByProduct.containsKey(productId);
+    }
+
+    synchronized int size() {
+        return purchasesByToken.size();
+    }
+
+    /**
+     * Returns a copy of all the stored purchases
+     */
+    @NonNull
+    synchronized List<PurchaseInfo> getAll() {
+        List<PurchaseInfo> result = new ArrayList<>();
+        for (List<PurchaseInfo> purchases : purchasesByToken.values()) {
+            result.addAll(purchases);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,239 @@
+package com.mct.iap.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Persists the acknowledge and consume operations still to be done, so they survive process death.
+ * <p>
+ * Operations are handed out oldest purchase first, it is the nearest to the 3 days refund deadline.
+ * A failed operation is retried after the backoff of {@link ErrorPolicy}, until its purchase is older than
+ * the 3 days window. Play refunds the purchase after that, so the operation is dropped.
+ */
+class PurchaseWorkQueue {
+
+    private static final String PREFS_NAME = "iap_purchase_work";
+    static final long ACKNOWLEDGE_WINDOW_MILLISECONDS = 3 * 24 * 60 * 60_000L;
+
+    enum Operation {
+        ACKNOWLEDGE,
+        CONSUME
+    }
+
+    private final SharedPreferences preferences;
+    private final String key;
+    private final Consumer<String> logger;
+
+    private final Map<String, Work> works = new LinkedHashMap<>();
+
+    PurchaseWorkQueue(@NonNull Context context, String base64Key, @NonNull Consumer<String> logger) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), base64Key, logger);
+    }
+
+    PurchaseWorkQueue(@NonNull SharedPreferences preferences, String base64Key, @NonNull Consumer<String> logger) {
+        this.preferences = preferences;
+        this.key = "queue_" + (base64Key == null ? 0 : base64Key.hashCode());
+        this.logger = logger;
+    }
+
+    /**
+     * Restores the persisted operations whose purchase is accepted by the verifier
+     */
+    synchronized void load(@NonNull Predicate<Purchase> verifier) {
+        works.clear();
+        String json = preferences.getString(key, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray items = new JSONObject(json).getJSONArray("works");
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                Purchase purchase = new Purchase(item.getString("json"), item.optString("signature", ""));
+                if (verifier.test(purchase)) {
+                    Work work = new Work(Operation.valueOf(item.getString("operation")), purchase);
+                    work.attempts = item.optInt("attempts");
+                    work.nextAttemptAt = item.optLong("nextAttemptAt");
+                    works.put(work.key(), work);
+                }
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            logger.accept("Purchase work: can not restore the queue: " + e.getMessage());
+            works.clear();
+        }
+    }
+
+    /**
+     * Queues the operation, unless it is already queued for the same purchase or the purchase is past the 3 days window
+     *
+     * @return true if the operation was added
+     */
+    synchronized boolean add(@NonNull Operation operation, @NonNull Purchase purchase) {
+        Work work = new Work(operation, purchase);
+        if (works.containsKey(work.key()) || isExpired(purchase, System.currentTimeMillis())) {
+            return false;
+        }
+        works.put(work.key(), work);
+        persist();
+        return true;
+    }
+
+    /**
+     * Removes the operation once it is done, or can not be done at all
+     */
+    synchronized void remove(@NonNull Work work) {
+        if (works.remove(work.key()) != null) {
+            persist();
+        }
+    }
+
+    /**
+     * Removes the operation of the purchase if queued, e.g. when Play reports it as acknowledged already
+     */
+    synchronized void cancel(@NonNull Operation operation, @NonNull String purchaseToken) {
+        if (works.remove(operation + ":" + purchaseToken) != null) {
+            persist();
+        }
+    }
+
+    /**
+     * Removes the operations whose purchase is past the 3 days window, except the ones in flight
+     *
+     * @return the removed operations
+     */
+    @NonNull
+    synchronized List<Work> removeExpired(long now) {
+        List<Work> expired = new ArrayList<>();
+        Iterator<Work> iterator = works.values().iterator();
+        while (iterator.hasNext()) {
+            Work work = iterator.next();
+            if (!work.inFlight && isExpired(work.purchase, now)) {
+                iterator.remove();
+                expired.add(work);
+            }
+        }
+        if (!expired.isEmpty()) {
+            persist();
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the due operation of the oldest purchase and marks it in flight, null if none is due
+     */
+    @Nullable
+    synchronized Work poll(long now) {
+        Work oldest = null;
+        for (Work work : works.values()) {
+            if (work.inFlight || work.nextAttemptAt > now) {
+                continue;
+            }
+            if (oldest == null || work.purchase.getPurchaseTime() < oldest.purchase.getPurchaseTime()) {
+                oldest = work;
+            }
+        }
+        if (oldest != null) {
+            oldest.inFlight = true;
+        }
+        return oldest;
+    }
+
+    /**
+     * Returns the time of the next operation waiting for its backoff, -1 if none
+     */
+    synchronized long nextAttemptAt() {
+        long next = -1;
+        for (Work work : works.values()) {
+            if (!work.inFlight && (next < 0 || work.nextAttemptAt < next)) {
+                next = work.nextAttemptAt;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Schedules the failed operation again
+     *
+     * @return the backoff before the next attempt
+     */
+    synchronized long retry(@NonNull Work work, int responseCode) {
+        work.inFlight = false;
+        work.attempts++;
+        long delay = ErrorPolicy.backoffMillis(responseCode, work.attempts);
+        work.nextAttemptAt = System.currentTimeMillis() + delay;
+        if (works.containsKey(work.key())) {
+            persist();
+        }
+        return delay;
+    }
+
+    /**
+     * Hands the operations in flight out again, e.g. after the billing client was closed
+     */
+    synchronized void resetInFlight() {
+        for (Work work : works.values()) {
+            work.inFlight = false;
+        }
+    }
+
+    private static boolean isExpired(@NonNull Purchase purchase, long now) {
+        return now - purchase.getPurchaseTime() > ACKNOWLEDGE_WINDOW_MILLISECONDS;
+    }
+
+    private void persist() {
+        try {
+            JSONArray items = new JSONArray();
+            for (Work work : works.values()) {
+                items.put(new JSONObject()
+                        .put("operation", work.operation.name())
+                        .put("json", work.purchase.getOriginalJson())
+                        .put("signature", work.purchase.getSignature())
+                        .put("attempts", work.attempts)
+                        .put("nextAttemptAt", work.nextAttemptAt));
+            }
+            preferences.edit().putString(key, new JSONObject().put("works", items).toString()).apply();
+        } catch (JSONException e) {
+            logger.accept("Purchase work: can not persist the queue: " + e.getMessage());
+        }
+    }
+
+    static final class Work {
+
+        final Operation operation;
+        final Purchase purchase;
+
+        private int attempts;
+        private long nextAttemptAt;
+        private boolean inFlight;
+
+        private Work(Operation operation, Purchase purchase) {
+            this.operation = operation;
+            this.purchase = purchase;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+
+        private String key() {
+            return operation + ":" + purchase.getPurchaseToken();
+        }
+    }
+}
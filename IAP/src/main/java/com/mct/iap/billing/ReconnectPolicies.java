@@ -0,0 +1,117 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@link ReconnectPolicy} implementations shipped with the library
+ */
+class ReconnectPolicies {
+
+    static final class DecorrelatedJitter implements ReconnectPolicy {
+
+        private final long baseMillis;
+        private final long maxMillis;
+        private long previousMillis;
+
+        DecorrelatedJitter(long baseMillis, long maxMillis) {
+            if (baseMillis <= 0 || maxMillis < baseMillis) {
+                throw new IllegalArgumentException("The base delay must be positive and not greater than the max delay");
+            }
+            this.baseMillis = baseMillis;
+            this.maxMillis = maxMillis;
+            this.previousMillis = baseMillis;
+        }
+
+        @Override
+        public synchronized long nextDelayMillis(int attempt) {
+            long upper = Math.max(baseMillis, Math.min(maxMillis, previousMillis * 3));
+            previousMillis = ThreadLocalRandom.current().nextLong(baseMillis, upper + 1);
+            return previousMillis;
+        }
+
+        @Override
+        public synchronized void reset() {
+            previousMillis = baseMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "DecorrelatedJitter{" +
+                    "baseMillis=" + baseMillis +
+                    ", maxMillis=" + maxMillis +
+                    '}';
+        }
+    }
+
+    static final class MaxAttempts implements ReconnectPolicy {
+
+        private final ReconnectPolicy policy;
+        private final int maxAttempts;
+
+        MaxAttempts(@NonNull ReconnectPolicy policy, int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("At least one attempt is needed");
+            }
+            this.policy = policy;
+            this.maxAttempts = maxAttempts;
+        }
+
+        @Override
+        public long nextDelayMillis(int attempt) {
+            return attempt > maxAttempts ? STOP : policy.nextDelayMillis(attempt);
+        }
+
+        @Override
+        public void reset() {
+            policy.reset();
+        }
+
+        @Override
+        public boolean isForegroundOnly() {
+            return policy.isForegroundOnly();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return policy + ".withMaxAttempts(" + maxAttempts + ")";
+        }
+    }
+
+    static final class ForegroundOnly implements ReconnectPolicy {
+
+        private final ReconnectPolicy policy;
+
+        ForegroundOnly(@NonNull ReconnectPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public long nextDelayMillis(int attempt) {
+            return policy.nextDelayMillis(attempt);
+        }
+
+        @Override
+        public void reset() {
+            policy.reset();
+        }
+
+        @Override
+        public boolean isForegroundOnly() {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return policy + ".foregroundOnly()";
+        }
+    }
+
+    private ReconnectPolicies() {
+        //no instance
+    }
+}
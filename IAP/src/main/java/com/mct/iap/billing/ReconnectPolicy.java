@@ -0,0 +1,73 @@
+package com.mct.iap.billing;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides how long {@link BillingConnector} waits before it tries to connect the billing client again.
+ * <p>
+ * A policy may keep state between attempts, it is reset once a connection succeeds.
+ * <p>
+ * Example Usage:
+ * <code>
+ * <pre>
+ * connector.setReconnectPolicy(ReconnectPolicy.decorrelatedJitter(1000, 60_000)
+ *         .withMaxAttempts(10)
+ *         .foregroundOnly());
+ * </pre>
+ * </code>
+ */
+public interface ReconnectPolicy {
+
+    /**
+     * Returned by {@link #nextDelayMillis(int)} to stop reconnecting
+     */
+    long STOP = -1L;
+
+    /**
+     * Returns the delay in milliseconds before the next attempt, or {@link #STOP} to give up
+     *
+     * @param attempt - is the number of the upcoming attempt, starting at 1
+     */
+    long nextDelayMillis(int attempt);
+
+    /**
+     * Called once the billing client is connected
+     */
+    default void reset() {
+    }
+
+    /**
+     * Returns true if the connector must wait for the app to come to the foreground before retrying
+     */
+    default boolean isForegroundOnly() {
+        return false;
+    }
+
+    /**
+     * Returns a policy that gives up after the given number of attempts
+     */
+    @NonNull
+    default ReconnectPolicy withMaxAttempts(int maxAttempts) {
+        return new ReconnectPolicies.MaxAttempts(this, maxAttempts);
+    }
+
+    /**
+     * Returns a policy that only retries while the app is in the foreground
+     */
+    @NonNull
+    default ReconnectPolicy foregroundOnly() {
+        return new ReconnectPolicies.ForegroundOnly(this);
+    }
+
+    /**
+     * Returns an exponential backoff with decorrelated jitter: each delay is picked at random
+     * between the base delay and three times the previous delay, capped at the max delay
+     *
+     * @param baseMillis - is the first and minimum delay
+     * @param maxMillis  - is the maximum delay
+     */
+    @NonNull
+    static ReconnectPolicy decorrelatedJitter(long baseMillis, long maxMillis) {
+        return new ReconnectPolicies.DecorrelatedJitter(baseMillis, maxMillis);
+    }
+}
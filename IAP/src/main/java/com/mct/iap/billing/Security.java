@@ -13,6 +13,17 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Security-related methods. For a secure implementation, all of this code should be implemented on
@@ -23,6 +34,43 @@ class Security {
     static final private String KEY_FACTORY_ALGORITHM = "RSA";
     static final private String SIGNATURE_ALGORITHM = "SHA1withRSA";
 
+    /**
+     * Lists smaller than this are verified on the calling thread
+     */
+    static final private int BATCH_MIN_SIZE = 16;
+
+    /**
+     * Upper bound of the verification worker threads
+     */
+    static final int MAX_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    static private ExecutorService verificationExecutor;
+
+    /**
+     * Parsed public keys by their Base64 encoded form, a key is parsed only once per process
+     */
+    static final private Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Base64 encoded keys that failed to parse, they are reported once and not parsed again
+     */
+    static final private Set<String> invalidKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Signature instances are not thread safe, each thread reuses its own verifier
+     */
+    static final private ThreadLocal<Signature> verifiers = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance(SIGNATURE_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // "SHA1withRSA" is guaranteed to be available.
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
     /**
      * Verifies that the data was signed with the given signature
      *
@@ -37,12 +85,109 @@ class Security {
             Log.w(TAG, "Purchase verification failed: missing data.");
             return false;
         }
+        PublicKey key = getPublicKey(base64PublicKey);
+        return key != null && verify(key, signedData, signature);
+    }
+
+    /**
+     * Verifies that the data was signed with one of the given keys, e.g. during a key rotation
+     *
+     * @param base64PublicKeys the base64-encoded public keys to use for verifying.
+     * @param signedData       the signed JSON string (signed, not encrypted)
+     * @param signature        the signature for the data, signed with the private key
+     */
+    static public boolean verifyPurchase(Collection<String> base64PublicKeys, String signedData, String signature) {
+        for (String base64PublicKey : base64PublicKeys) {
+            if (verifyPurchase(base64PublicKey, signedData, signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verifies a batch of signed data, splitting large batches across a bounded worker pool.
+     * The calling thread verifies one of the parts and waits for the others.
+     *
+     * @param base64PublicKeys the base64-encoded public keys to use for verifying.
+     * @param signedData       the signed JSON strings (signed, not encrypted)
+     * @param signatures       the signatures for the data, in the same order as signedData
+     * @param parallelism      the maximum number of threads verifying at the same time
+     * @return the verdict of each data, in input order
+     */
+    static boolean[] verifyPurchases(Collection<String> base64PublicKeys, List<String> signedData, List<String> signatures, int parallelism) {
+        int size = signedData.size();
+        boolean[] verdicts = new boolean[size];
+        int parts = Math.min(Math.min(parallelism, MAX_PARALLELISM), size / BATCH_MIN_SIZE);
+        if (parts <= 1) {
+            verifyRange(base64PublicKeys, signedData, signatures, verdicts, 0, size);
+            return verdicts;
+        }
+
+        int partSize = (size + parts - 1) / parts;
+        List<Future<?>> futures = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        for (int from = partSize; from < size; from += partSize) {
+            int start = from;
+            int end = Math.min(size, from + partSize);
+            ranges.add(new int[]{start, end});
+            futures.add(getVerificationExecutor().submit(() -> verifyRange(base64PublicKeys, signedData, signatures, verdicts, start, end)));
+        }
+        verifyRange(base64PublicKeys, signedData, signatures, verdicts, 0, Math.min(size, partSize));
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Batch verification failed, retrying on the calling thread", e);
+                verifyRange(base64PublicKeys, signedData, signatures, verdicts, ranges.get(i)[0], ranges.get(i)[1]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                verifyRange(base64PublicKeys, signedData, signatures, verdicts, ranges.get(i)[0], ranges.get(i)[1]);
+            }
+        }
+        return verdicts;
+    }
+
+    static private void verifyRange(Collection<String> base64PublicKeys, List<String> signedData, List<String> signatures,
+                                    boolean[] verdicts, int from, int to) {
+        for (int i = from; i < to; i++) {
+            verdicts[i] = verifyPurchase(base64PublicKeys, signedData.get(i), signatures.get(i));
+        }
+    }
+
+    static synchronized private ExecutorService getVerificationExecutor() {
+        if (verificationExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            verificationExecutor = Executors.newFixedThreadPool(MAX_PARALLELISM, runnable -> {
+                Thread thread = new Thread(runnable, "iap-verify-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return verificationExecutor;
+    }
+
+    /**
+     * Returns the cached PublicKey of the given Base64-encoded key, parsing it on first use.
+     *
+     * @param encodedPublicKey Base64-encoded public key
+     * @return the key, or null if the key specification is invalid
+     */
+    static private PublicKey getPublicKey(String encodedPublicKey) {
+        PublicKey key = publicKeys.get(encodedPublicKey);
+        if (key != null || invalidKeys.contains(encodedPublicKey)) {
+            return key;
+        }
         try {
-            PublicKey key = generatePublicKey(base64PublicKey);
-            return verify(key, signedData, signature);
+            key = generatePublicKey(encodedPublicKey);
+            publicKeys.put(encodedPublicKey, key);
+            return key;
         } catch (IOException e) {
-            Log.e(TAG, "Error generating PublicKey from encoded key: " + e.getMessage());
-            return false;
+            if (invalidKeys.add(encodedPublicKey)) {
+                Log.e(TAG, "Error generating PublicKey from encoded key: " + e.getMessage());
+            }
+            return null;
         }
     }
 
@@ -61,10 +206,9 @@ class Security {
         } catch (NoSuchAlgorithmException e) {
             // "RSA" is guaranteed to be available.
             throw new RuntimeException(e);
-        } catch (InvalidKeySpecException e) {
-            String msg = "Invalid key specification: " + e;
-            Log.w(TAG, msg);
-            throw new IOException(msg);
+        } catch (InvalidKeySpecException | IllegalArgumentException e) {
+            //IllegalArgumentException if the key is not valid Base64
+            throw new IOException("Invalid key specification: " + e);
         }
     }
 
@@ -86,7 +230,7 @@ class Security {
             return false;
         }
         try {
-            Signature signatureAlgorithm = Signature.getInstance(SIGNATURE_ALGORITHM);
+            Signature signatureAlgorithm = verifiers.get();
             signatureAlgorithm.initVerify(publicKey);
             signatureAlgorithm.update(signedData.getBytes());
             if (!signatureAlgorithm.verify(signatureBytes)) {
@@ -94,9 +238,6 @@ class Security {
                 return false;
             }
             return true;
-        } catch (NoSuchAlgorithmException e) {
-            // "RSA" is guaranteed to be available.
-            throw new RuntimeException(e);
         } catch (InvalidKeyException e) {
             Log.e(TAG, "Invalid key specification.");
         } catch (SignatureException e) {
@@ -0,0 +1,85 @@
+package com.mct.iap.billing;
+
+import android.os.SystemClock;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Collapses identical requests into one in-flight operation.
+ * <p>
+ * A request is skipped while the same request is in flight, its caller gets the result through the
+ * events of the running one. A request that succeeded is not started again within the debounce window.
+ * A different request arriving while one is in flight is remembered, and {@link #finish(boolean)} asks to run it.
+ */
+final class SingleFlight {
+
+    private final long debounceMillis;
+    private final LongSupplier clock;
+
+    private boolean inFlight;
+    private Object inFlightKey;
+    private boolean requeued;
+
+    private Object completedKey;
+    private long completedAt;
+
+    SingleFlight(long debounceMillis) {
+        this(debounceMillis, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock - returns the current time in milliseconds, e.g. a fake one in tests
+     */
+    SingleFlight(long debounceMillis, LongSupplier clock) {
+        this.debounceMillis = debounceMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns true if the request has to be started, false if it joins the one in flight or was just done
+     */
+    synchronized boolean tryStart(Object key) {
+        if (inFlight) {
+            if (!Objects.equals(key, inFlightKey)) {
+                requeued = true;
+            }
+            return false;
+        }
+        if (completedKey != null && Objects.equals(key, completedKey)
+                && clock.getAsLong() - completedAt < debounceMillis) {
+            return false;
+        }
+        inFlight = true;
+        inFlightKey = key;
+        return true;
+    }
+
+    /**
+     * Ends the request in flight, only successful requests are debounced
+     *
+     * @return true if a different request arrived in the meantime and has to be started now
+     */
+    synchronized boolean finish(boolean success) {
+        if (success) {
+            completedKey = inFlightKey;
+            completedAt = clock.getAsLong();
+        }
+        inFlight = false;
+        inFlightKey = null;
+        boolean rerun = requeued;
+        requeued = false;
+        return rerun;
+    }
+
+    /**
+     * Forgets the request in flight and the last completion, e.g. after its callbacks were cancelled
+     */
+    synchronized void reset() {
+        inFlight = false;
+        inFlightKey = null;
+        requeued = false;
+        completedKey = null;
+        completedAt = 0;
+    }
+}
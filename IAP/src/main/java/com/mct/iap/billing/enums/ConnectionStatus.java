@@ -0,0 +1,11 @@
+package com.mct.iap.billing.enums;
+
+public enum ConnectionStatus {
+    CONNECTING,
+    CONNECTED,
+    DISCONNECTED,
+    WAITING_TO_RECONNECT,
+    WAITING_FOR_FOREGROUND,
+    GAVE_UP,
+    PARKED
+}
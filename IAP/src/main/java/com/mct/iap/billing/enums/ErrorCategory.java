@@ -0,0 +1,7 @@
+package com.mct.iap.billing.enums;
+
+public enum ErrorCategory {
+    RETRYABLE,
+    FATAL,
+    USER
+}
@@ -4,5 +4,7 @@ public enum PurchasedResult {
     CLIENT_NOT_READY,
     PURCHASED_PRODUCTS_NOT_FETCHED_YET,
     YES,
-    NO
+    NO,
+    CACHED_YES,
+    CACHED_NO
 }
\ No newline at end of file
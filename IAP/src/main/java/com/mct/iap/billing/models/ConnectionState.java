@@ -0,0 +1,61 @@
+package com.mct.iap.billing.models;
+
+import androidx.annotation.NonNull;
+
+import com.mct.iap.billing.ReconnectPolicy;
+import com.mct.iap.billing.enums.ConnectionStatus;
+
+public class ConnectionState {
+
+    private final ConnectionStatus status;
+    private final int attempt;
+    private final long retryDelayMillis;
+    private final ReconnectPolicy reconnectPolicy;
+
+    public ConnectionState(ConnectionStatus status, int attempt, long retryDelayMillis, ReconnectPolicy reconnectPolicy) {
+        this.status = status;
+        this.attempt = attempt;
+        this.retryDelayMillis = retryDelayMillis;
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    public ConnectionStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of reconnect attempts since the last successful connection
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * Returns the delay before the next attempt when the status is WAITING_TO_RECONNECT, 0 otherwise
+     */
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * Returns the policy deciding the reconnect attempts
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    public boolean isConnected() {
+        return status == ConnectionStatus.CONNECTED;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ConnectionState{" +
+                "status=" + status +
+                ", attempt=" + attempt +
+                ", retryDelayMillis=" + retryDelayMillis +
+                ", reconnectPolicy=" + reconnectPolicy +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package com.mct.iap.billing.models;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class EntitlementSnapshot {
+
+    private final Set<String> productIds;
+    private final long verifiedAt;
+    private final boolean cached;
+
+    public EntitlementSnapshot(Set<String> productIds, long verifiedAt, boolean cached) {
+        this.productIds = Collections.unmodifiableSet(new HashSet<>(productIds));
+        this.verifiedAt = verifiedAt;
+        this.cached = cached;
+    }
+
+    /**
+     * Returns the ids of the owned products
+     */
+    public Set<String> getProductIds() {
+        return productIds;
+    }
+
+    /**
+     * Returns the time in milliseconds when the purchases were last verified with Play, 0 if never
+     */
+    public long getVerifiedAt() {
+        return verifiedAt;
+    }
+
+    /**
+     * Returns true if the snapshot was restored from disk and is not reconciled with Play yet
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Returns true if purchases have been verified at least once
+     */
+    public boolean isAvailable() {
+        return verifiedAt > 0;
+    }
+
+    public boolean isPurchased(String productId) {
+        return productIds.contains(productId);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "EntitlementSnapshot{" +
+                "productIds=" + productIds +
+                ", verifiedAt=" + verifiedAt +
+                ", cached=" + cached +
+                '}';
+    }
+}
@@ -46,6 +46,34 @@ public class ProductInfo {
         }
     }
 
+    /**
+     * Creates a ProductInfo restored from the product details cache, without {@link ProductDetails}
+     */
+    public ProductInfo(SkuProductType skuProductType, String product, String description, String title, String type, String name,
+                       String oneTimePurchaseOfferFormattedPrice, long oneTimePurchaseOfferPriceAmountMicros, String oneTimePurchaseOfferPriceCurrencyCode,
+                       List<SubscriptionOfferDetails> subscriptionOfferDetails) {
+        this.skuProductType = skuProductType;
+        this.productDetails = null;
+        this.product = product;
+        this.description = description;
+        this.title = title;
+        this.type = type;
+        this.name = name;
+        this.oneTimePurchaseOfferFormattedPrice = oneTimePurchaseOfferFormattedPrice;
+        this.oneTimePurchaseOfferPriceAmountMicros = oneTimePurchaseOfferPriceAmountMicros;
+        this.oneTimePurchaseOfferPriceCurrencyCode = oneTimePurchaseOfferPriceCurrencyCode;
+        this.subscriptionOfferDetails = subscriptionOfferDetails == null ? new ArrayList<>() : new ArrayList<>(subscriptionOfferDetails);
+    }
+
+    /**
+     * Returns true if the product was restored from the cache and has no {@link ProductDetails} yet
+     * <p>
+     * Cached products can be displayed but not purchased
+     */
+    public boolean isCached() {
+        return productDetails == null;
+    }
+
     public SkuProductType getSkuProductType() {
         return skuProductType;
     }
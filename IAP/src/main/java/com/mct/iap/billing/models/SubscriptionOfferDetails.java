@@ -31,6 +31,17 @@ public class SubscriptionOfferDetails {
         }
     }
 
+    /**
+     * Creates a SubscriptionOfferDetails restored from the product details cache
+     */
+    public SubscriptionOfferDetails(String offerId, List<String> offerTags, String offerToken, String basePlanId, List<PricingPhases> pricingPhases) {
+        this.offerId = offerId;
+        this.offerTags = offerTags;
+        this.offerToken = offerToken;
+        this.basePlanId = basePlanId;
+        this.pricingPhases = pricingPhases == null ? new ArrayList<>() : new ArrayList<>(pricingPhases);
+    }
+
     public String getOfferId() {
         return offerId;
     }
@@ -0,0 +1,160 @@
+package com.mct.iap.billing;
+
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.BILLING_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.NETWORK_ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.OK;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.USER_CANCELED;
+
+import com.mct.iap.billing.enums.CircuitState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_TIME = 60_000L;
+    private static final long TRIAL_TIMEOUT = 30_000L;
+
+    private long now;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        now = 10_000L;
+        breaker = new CircuitBreaker(() -> now);
+    }
+
+    @Test
+    public void opensAfterThreeBillingUnavailable() {
+        assertFalse(breaker.onFailure(BILLING_UNAVAILABLE));
+        assertFalse(breaker.onFailure(BILLING_UNAVAILABLE));
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        assertTrue(breaker.onFailure(BILLING_UNAVAILABLE));
+        assertEquals(CircuitState.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(OPEN_TIME, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void otherFailuresAreNotCounted() {
+        for (int i = 0; i < 10; i++) {
+            assertFalse(breaker.onFailure(NETWORK_ERROR));
+        }
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void successResetsTheCount() {
+        breaker.onFailure(BILLING_UNAVAILABLE);
+        breaker.onFailure(BILLING_UNAVAILABLE);
+        assertFalse(breaker.onSuccess());
+        assertFalse(breaker.onFailure(BILLING_UNAVAILABLE));
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenLetsASingleTrialCallThrough() {
+        open();
+        now += OPEN_TIME;
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        assertEquals(0, breaker.getRemainingOpenMillis());
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertEquals(TRIAL_TIMEOUT, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void trialPermitIsGivenBackAfterItsTimeout() {
+        open();
+        now += OPEN_TIME;
+        assertTrue(breaker.allowRequest());
+        now += TRIAL_TIMEOUT - 1;
+        assertFalse(breaker.allowRequest());
+        now += 1;
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialReopensForTwiceAsLong() {
+        open();
+        now += OPEN_TIME;
+        assertTrue(breaker.allowRequest());
+
+        assertTrue(breaker.onFailure(BILLING_UNAVAILABLE));
+        assertEquals(CircuitState.OPEN, breaker.getState());
+        assertEquals(2 * OPEN_TIME, breaker.getRemainingOpenMillis());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void openTimeIsCappedAt30Minutes() {
+        open();
+        for (int i = 0; i < 10; i++) {
+            now += breaker.getRemainingOpenMillis();
+            breaker.onFailure(BILLING_UNAVAILABLE);
+        }
+        assertEquals(30 * 60_000L, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void otherFailureOfTheTrialGivesThePermitBack() {
+        open();
+        now += OPEN_TIME;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.onFailure(NETWORK_ERROR));
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void successfulTrialClosesTheCircuit() {
+        open();
+        now += OPEN_TIME;
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.onSuccess());
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+
+        //the open time starts over
+        open();
+        assertEquals(OPEN_TIME, breaker.getRemainingOpenMillis());
+    }
+
+    @Test
+    public void cancelledTrialPurchaseClosesTheCircuit() {
+        open();
+        now += OPEN_TIME;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.onResult(USER_CANCELED));
+        assertEquals(CircuitState.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void reachableServiceAnswersResetTheCount() {
+        breaker.onResult(BILLING_UNAVAILABLE);
+        breaker.onResult(BILLING_UNAVAILABLE);
+        breaker.onResult(ITEM_ALREADY_OWNED);
+        assertFalse(breaker.onResult(BILLING_UNAVAILABLE));
+        breaker.onResult(OK);
+        assertFalse(breaker.onResult(BILLING_UNAVAILABLE));
+        assertFalse(breaker.onResult(BILLING_UNAVAILABLE));
+        assertTrue(breaker.onResult(BILLING_UNAVAILABLE));
+        assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+
+    private void open() {
+        breaker.onFailure(BILLING_UNAVAILABLE);
+        breaker.onFailure(BILLING_UNAVAILABLE);
+        breaker.onFailure(BILLING_UNAVAILABLE);
+    }
+}
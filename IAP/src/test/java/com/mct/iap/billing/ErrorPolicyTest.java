@@ -0,0 +1,100 @@
+package com.mct.iap.billing;
+
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.BILLING_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.DEVELOPER_ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.ITEM_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.NETWORK_ERROR;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.OK;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE;
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.USER_CANCELED;
+
+import com.mct.iap.billing.enums.ErrorCategory;
+import com.mct.iap.billing.enums.ErrorType;
+import com.mct.iap.billing.models.BillingResponse;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ErrorPolicyTest {
+
+    @Test
+    public void transientCodesAreRetryable() {
+        int[] codes = {SERVICE_TIMEOUT, SERVICE_DISCONNECTED, SERVICE_UNAVAILABLE, BILLING_UNAVAILABLE, NETWORK_ERROR, ERROR};
+        for (int code : codes) {
+            assertEquals(ErrorCategory.RETRYABLE, ErrorPolicy.classify(code));
+            assertTrue(ErrorPolicy.isRetryable(code));
+        }
+    }
+
+    @Test
+    public void userCodesAreNotRetried() {
+        assertEquals(ErrorCategory.USER, ErrorPolicy.classify(USER_CANCELED));
+        assertEquals(ErrorCategory.USER, ErrorPolicy.classify(ITEM_ALREADY_OWNED));
+        assertFalse(ErrorPolicy.isRetryable(USER_CANCELED));
+    }
+
+    @Test
+    public void otherCodesAreFatal() {
+        assertEquals(ErrorCategory.FATAL, ErrorPolicy.classify(DEVELOPER_ERROR));
+        assertEquals(ErrorCategory.FATAL, ErrorPolicy.classify(ITEM_UNAVAILABLE));
+        assertEquals(ErrorCategory.FATAL, ErrorPolicy.classify(OK));
+    }
+
+    @Test
+    public void errorTypeIsClassifiedBeforeTheCode() {
+        assertEquals(ErrorCategory.RETRYABLE, ErrorPolicy.classify(response(ErrorType.CLIENT_NOT_READY, 99)));
+        assertEquals(ErrorCategory.RETRYABLE, ErrorPolicy.classify(response(ErrorType.CLIENT_DISCONNECTED, 99)));
+        assertEquals(ErrorCategory.FATAL, ErrorPolicy.classify(response(ErrorType.PRODUCT_NOT_EXIST, SERVICE_DISCONNECTED)));
+        assertEquals(ErrorCategory.USER, ErrorPolicy.classify(response(ErrorType.USER_CANCELED, 99)));
+        assertEquals(ErrorCategory.RETRYABLE, ErrorPolicy.classify(response(ErrorType.NETWORK_ERROR, NETWORK_ERROR)));
+        assertEquals(ErrorCategory.FATAL, ErrorPolicy.classify(response(ErrorType.DEVELOPER_ERROR, DEVELOPER_ERROR)));
+    }
+
+    @Test
+    public void pendingPurchaseWarningsAreUserErrors() {
+        assertEquals(ErrorCategory.USER, ErrorPolicy.classify(response(ErrorType.CONSUME_WARNING, 99)));
+        assertEquals(ErrorCategory.USER, ErrorPolicy.classify(response(ErrorType.ACKNOWLEDGE_WARNING, 99)));
+    }
+
+    @Test
+    public void backoffStartsFromTheBaseOfTheCodeAndDoubles() {
+        assertEquals(2_000L, ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 1));
+        assertEquals(4_000L, ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 2));
+        assertEquals(2_000L, ErrorPolicy.backoffMillis(ERROR, 1));
+        assertEquals(5_000L, ErrorPolicy.backoffMillis(NETWORK_ERROR, 1));
+        assertEquals(20_000L, ErrorPolicy.backoffMillis(NETWORK_ERROR, 3));
+        assertEquals(60_000L, ErrorPolicy.backoffMillis(BILLING_UNAVAILABLE, 1));
+        assertEquals(120_000L, ErrorPolicy.backoffMillis(BILLING_UNAVAILABLE, 2));
+    }
+
+    @Test
+    public void backoffIsCappedAt30Minutes() {
+        assertEquals(30 * 60_000L, ErrorPolicy.backoffMillis(BILLING_UNAVAILABLE, 6));
+        assertEquals(30 * 60_000L, ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 1_000));
+    }
+
+    @Test
+    public void attemptBelowOneUsesTheBaseDelay() {
+        assertEquals(2_000L, ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 0));
+        assertEquals(2_000L, ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, -3));
+    }
+
+    @Test
+    public void codesMapToTheirErrorType() {
+        assertEquals(ErrorType.USER_CANCELED, ErrorPolicy.toErrorType(USER_CANCELED));
+        assertEquals(ErrorType.BILLING_UNAVAILABLE, ErrorPolicy.toErrorType(BILLING_UNAVAILABLE));
+        assertEquals(ErrorType.NETWORK_ERROR, ErrorPolicy.toErrorType(NETWORK_ERROR));
+        assertEquals(ErrorType.CLIENT_DISCONNECTED, ErrorPolicy.toErrorType(SERVICE_TIMEOUT));
+        assertEquals(ErrorType.CLIENT_DISCONNECTED, ErrorPolicy.toErrorType(SERVICE_DISCONNECTED));
+        assertEquals(ErrorType.BILLING_ERROR, ErrorPolicy.toErrorType(99));
+    }
+
+    private static BillingResponse response(ErrorType errorType, int responseCode) {
+        return new BillingResponse(errorType, "", responseCode);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mct.iap.billing;
+
+import com.mct.iap.billing.enums.ErrorType;
+import com.mct.iap.billing.models.BillingResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class FutureWaitersTest {
+
+    private boolean purchasesFetched;
+    private boolean connected;
+    private FutureWaiters waiters;
+
+    @Before
+    public void setUp() {
+        purchasesFetched = false;
+        connected = false;
+        waiters = new FutureWaiters();
+    }
+
+    @Test
+    public void metConditionCompletesAtOnce() {
+        purchasesFetched = true;
+        assertTrue(waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetched).isDone());
+    }
+
+    @Test
+    public void checkCompletesTheWaitersWhoseConditionIsMet() {
+        CompletableFuture<Void> purchases = waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetched);
+        CompletableFuture<Void> connection = waiters.when(FutureWaiters.Topic.CONNECTION, () -> connected);
+        purchasesFetched = true;
+        waiters.check();
+        assertTrue(purchases.isDone());
+        assertFalse(connection.isDone());
+    }
+
+    @Test
+    public void purchaseQueryWhileNotReadyFailsThePurchaseWaiters() throws InterruptedException {
+        CompletableFuture<Void> purchases = waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetched);
+        CompletableFuture<Void> connection = waiters.when(FutureWaiters.Topic.CONNECTION, () -> connected);
+
+        BillingResponse response = new BillingResponse(ErrorType.FETCH_PURCHASED_PRODUCTS_ERROR, "Billing client is not ready yet", 99);
+        waiters.fail(FutureWaiters.Topic.PURCHASES, new BillingException(response));
+
+        assertTrue(purchases.isCompletedExceptionally());
+        try {
+            purchases.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(response, ((BillingException) e.getCause()).getResponse());
+        }
+        //waiters of other topics keep waiting
+        assertFalse(connection.isDone());
+    }
+
+    @Test
+    public void failCompletesTheWaitersWhoseConditionIsMet() {
+        CompletableFuture<Void> purchases = waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetched);
+        purchasesFetched = true;
+        waiters.fail(FutureWaiters.Topic.PURCHASES, new IllegalStateException());
+        assertTrue(purchases.isDone());
+        assertFalse(purchases.isCompletedExceptionally());
+    }
+
+    @Test
+    public void failAllFailsEveryWaiter() {
+        CompletableFuture<Void> purchases = waiters.when(FutureWaiters.Topic.PURCHASES, () -> purchasesFetched);
+        CompletableFuture<Void> connection = waiters.when(FutureWaiters.Topic.CONNECTION, () -> connected);
+        waiters.failAll(new IllegalStateException());
+        assertTrue(purchases.isCompletedExceptionally());
+        assertTrue(connection.isCompletedExceptionally());
+    }
+}
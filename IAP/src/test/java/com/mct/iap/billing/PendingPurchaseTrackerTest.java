@@ -0,0 +1,79 @@
+package com.mct.iap.billing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class PendingPurchaseTrackerTest {
+
+    private static final long SECOND = 1_000L;
+    private static final long MAX_DELAY = 15 * 60 * SECOND;
+
+    private PendingPurchaseTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new PendingPurchaseTracker();
+    }
+
+    @Test
+    public void firstChecksAreFastThenTheDelayDoubles() {
+        tracker.track("token", "inapp");
+        assertEquals(5 * SECOND, tracker.nextDelayMillis());
+        assertEquals(5 * SECOND, tracker.nextDelayMillis());
+        assertEquals(5 * SECOND, tracker.nextDelayMillis());
+        assertEquals(10 * SECOND, tracker.nextDelayMillis());
+        assertEquals(20 * SECOND, tracker.nextDelayMillis());
+        assertEquals(40 * SECOND, tracker.nextDelayMillis());
+    }
+
+    @Test
+    public void delayIsCappedAt15Minutes() {
+        tracker.track("token", "inapp");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tracker.nextDelayMillis() <= MAX_DELAY);
+        }
+        assertEquals(MAX_DELAY, tracker.nextDelayMillis());
+    }
+
+    @Test
+    public void newPurchaseMakesTheChecksFastAgain() {
+        tracker.track("token", "inapp");
+        for (int i = 0; i < 10; i++) {
+            tracker.nextDelayMillis();
+        }
+        assertTrue(tracker.track("other token", "subs"));
+        assertEquals(5 * SECOND, tracker.nextDelayMillis());
+    }
+
+    @Test
+    public void trackedPurchaseDoesNotResetTheChecks() {
+        tracker.track("token", "inapp");
+        for (int i = 0; i < 4; i++) {
+            tracker.nextDelayMillis();
+        }
+        assertFalse(tracker.track("token", "inapp"));
+        assertEquals(20 * SECOND, tracker.nextDelayMillis());
+    }
+
+    @Test
+    public void tokensAndTypesFollowTheTrackedPurchases() {
+        assertTrue(tracker.isEmpty());
+        tracker.track("token", "inapp");
+        tracker.track("other token", "subs");
+        assertEquals(new HashSet<>(Arrays.asList("token", "other token")), tracker.getPurchaseTokens());
+        assertEquals(new HashSet<>(Arrays.asList("inapp", "subs")), tracker.getProductTypes());
+
+        assertTrue(tracker.untrack("other token"));
+        assertFalse(tracker.untrack("other token"));
+        assertEquals(Collections.singleton("inapp"), tracker.getProductTypes());
+
+        tracker.untrack("token");
+        assertTrue(tracker.isEmpty());
+    }
+}
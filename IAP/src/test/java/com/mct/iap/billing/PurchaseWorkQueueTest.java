@@ -0,0 +1,158 @@
+package com.mct.iap.billing;
+
+import static com.android.billingclient.api.BillingClient.BillingResponseCode.SERVICE_DISCONNECTED;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PurchaseWorkQueueTest {
+
+    private static final long HOUR = 60 * 60_000L;
+
+    private FakeSharedPreferences preferences;
+    private PurchaseWorkQueue queue;
+
+    @Before
+    public void setUp() {
+        preferences = new FakeSharedPreferences();
+        queue = new PurchaseWorkQueue(preferences, "key", message -> {
+        });
+    }
+
+    @Test
+    public void pollHandsOutTheOldestPurchaseFirst() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("recent", now - HOUR));
+        queue.add(PurchaseWorkQueue.Operation.CONSUME, purchase("old", now - 2 * HOUR));
+
+        PurchaseWorkQueue.Work first = queue.poll(now);
+        PurchaseWorkQueue.Work second = queue.poll(now);
+
+        assertEquals("old", first.purchase.getPurchaseToken());
+        assertEquals(PurchaseWorkQueue.Operation.CONSUME, first.operation);
+        assertEquals("recent", second.purchase.getPurchaseToken());
+        //both are in flight
+        assertNull(queue.poll(now));
+        assertEquals(-1, queue.nextAttemptAt());
+    }
+
+    @Test
+    public void sameOperationIsQueuedOnce() throws JSONException {
+        long now = System.currentTimeMillis();
+        assertTrue(queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("token", now)));
+        assertFalse(queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("token", now)));
+        assertTrue(queue.add(PurchaseWorkQueue.Operation.CONSUME, purchase("token", now)));
+    }
+
+    @Test
+    public void failedOperationWaitsForItsBackoff() throws JSONException {
+        long purchaseTime = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("token", purchaseTime));
+        PurchaseWorkQueue.Work work = queue.poll(System.currentTimeMillis());
+
+        long before = System.currentTimeMillis();
+        long delay = queue.retry(work, SERVICE_DISCONNECTED);
+        assertEquals(ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 1), delay);
+        assertEquals(1, work.getAttempts());
+        assertTrue(queue.nextAttemptAt() >= before + delay);
+
+        assertNull(queue.poll(before));
+        assertSame(work, queue.poll(queue.nextAttemptAt()));
+
+        //the backoff grows with the attempts
+        assertEquals(ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 2), queue.retry(work, SERVICE_DISCONNECTED));
+        assertTrue(ErrorPolicy.backoffMillis(SERVICE_DISCONNECTED, 2) > delay);
+    }
+
+    @Test
+    public void removedOperationIsNotHandedOut() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("done", now));
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("cancelled", now));
+        queue.remove(queue.poll(now));
+        queue.cancel(PurchaseWorkQueue.Operation.ACKNOWLEDGE, "cancelled");
+        assertNull(queue.poll(now));
+    }
+
+    @Test
+    public void operationsPastTheWindowAreRemovedOnce() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("old", now - 2 * HOUR));
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("recent", now));
+
+        long later = now + PurchaseWorkQueue.ACKNOWLEDGE_WINDOW_MILLISECONDS - HOUR;
+        List<PurchaseWorkQueue.Work> expired = queue.removeExpired(later);
+
+        assertEquals(1, expired.size());
+        assertEquals("old", expired.get(0).purchase.getPurchaseToken());
+        assertTrue(queue.removeExpired(later).isEmpty());
+        assertEquals("recent", queue.poll(later).purchase.getPurchaseToken());
+    }
+
+    @Test
+    public void operationInFlightIsNotExpired() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.CONSUME, purchase("token", now));
+        PurchaseWorkQueue.Work work = queue.poll(now);
+
+        long later = now + PurchaseWorkQueue.ACKNOWLEDGE_WINDOW_MILLISECONDS + HOUR;
+        assertTrue(queue.removeExpired(later).isEmpty());
+        queue.retry(work, SERVICE_DISCONNECTED);
+        assertEquals(1, queue.removeExpired(later).size());
+    }
+
+    @Test
+    public void purchasePastTheWindowIsNotQueued() throws JSONException {
+        long purchaseTime = System.currentTimeMillis() - PurchaseWorkQueue.ACKNOWLEDGE_WINDOW_MILLISECONDS - HOUR;
+        assertFalse(queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("token", purchaseTime)));
+    }
+
+    @Test
+    public void operationsSurviveARestart() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.CONSUME, purchase("token", now));
+        queue.retry(queue.poll(now), SERVICE_DISCONNECTED);
+
+        PurchaseWorkQueue restored = new PurchaseWorkQueue(preferences, "key", message -> {
+        });
+        restored.load(purchase -> true);
+
+        PurchaseWorkQueue.Work work = restored.poll(restored.nextAttemptAt());
+        assertEquals("token", work.purchase.getPurchaseToken());
+        assertEquals(PurchaseWorkQueue.Operation.CONSUME, work.operation);
+        assertEquals(1, work.getAttempts());
+    }
+
+    @Test
+    public void rejectedPurchasesAreNotRestored() throws JSONException {
+        queue.add(PurchaseWorkQueue.Operation.CONSUME, purchase("token", System.currentTimeMillis()));
+
+        PurchaseWorkQueue restored = new PurchaseWorkQueue(preferences, "key", message -> {
+        });
+        restored.load(purchase -> false);
+
+        assertEquals(-1, restored.nextAttemptAt());
+    }
+
+    @Test
+    public void resetInFlightHandsOperationsOutAgain() throws JSONException {
+        long now = System.currentTimeMillis();
+        queue.add(PurchaseWorkQueue.Operation.ACKNOWLEDGE, purchase("token", now));
+        PurchaseWorkQueue.Work work = queue.poll(now);
+        queue.resetInFlight();
+        assertSame(work, queue.poll(now));
+    }
+
+    private static Purchase purchase(String purchaseToken, long purchaseTime) throws JSONException {
+        String json = "{\"orderId\":\"GPA." + purchaseToken + "\",\"productId\":\"product\",\"purchaseTime\":" + purchaseTime
+                + ",\"purchaseState\":0,\"purchaseToken\":\"" + purchaseToken + "\",\"acknowledged\":false}";
+        return new Purchase(json, "signature");
+    }
+}
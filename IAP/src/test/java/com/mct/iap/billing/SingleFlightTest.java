@@ -0,0 +1,70 @@
+package com.mct.iap.billing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private static final long DEBOUNCE = 2_000L;
+
+    private long now;
+    private SingleFlight flight;
+
+    @Before
+    public void setUp() {
+        now = 10_000L;
+        flight = new SingleFlight(DEBOUNCE, () -> now);
+    }
+
+    @Test
+    public void sameRequestJoinsTheOneInFlight() {
+        assertTrue(flight.tryStart("products"));
+        assertFalse(flight.tryStart("products"));
+        assertFalse(flight.finish(true));
+    }
+
+    @Test
+    public void differentRequestInFlightIsRerunOnFinish() {
+        assertTrue(flight.tryStart("products"));
+        assertFalse(flight.tryStart("other products"));
+        assertTrue(flight.finish(true));
+        //the rerun is only asked once
+        assertTrue(flight.tryStart("other products"));
+        assertFalse(flight.finish(true));
+    }
+
+    @Test
+    public void successIsDebounced() {
+        assertTrue(flight.tryStart("products"));
+        flight.finish(true);
+        now += DEBOUNCE - 1;
+        assertFalse(flight.tryStart("products"));
+        now += 1;
+        assertTrue(flight.tryStart("products"));
+    }
+
+    @Test
+    public void failureIsNotDebounced() {
+        assertTrue(flight.tryStart("products"));
+        flight.finish(false);
+        assertTrue(flight.tryStart("products"));
+    }
+
+    @Test
+    public void debounceOnlyAppliesToTheSameRequest() {
+        assertTrue(flight.tryStart("products"));
+        flight.finish(true);
+        assertTrue(flight.tryStart("other products"));
+    }
+
+    @Test
+    public void resetForgetsInFlightAndCompletedRequests() {
+        assertTrue(flight.tryStart("products"));
+        flight.finish(true);
+        assertTrue(flight.tryStart("other products"));
+        flight.reset();
+        assertTrue(flight.tryStart("products"));
+    }
+}